@@ -0,0 +1,315 @@
+package codesmells;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.ast.AstRoot;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.crawljax.plugins.aji.LibraryFingerprints;
+import com.crawljax.util.Helper;
+
+/**
+ * Analyses the JavaScript of a web application for code smells without a browser or proxy. The
+ * input is a directory or a zip archive with .js and .html files. Scripts in html files are
+ * extracted the same way JSModifyProxyPlugin does while crawling. Files are parsed in parallel with
+ * a fork/join pool and then analysed one at a time in file order, since the objects of a file are
+ * looked up in the files analysed before it (see SmellDetector.analyseScript()). Copies of known
+ * libraries (see {@link LibraryFingerprints}) are skipped. Smells that are only found at runtime
+ * (e.g. dynamically created objects) are not reported in this mode.
+ */
+public final class BatchSmellAnalyzer {
+
+	private static final Logger LOGGER = Logger.getLogger(BatchSmellAnalyzer.class.getName());
+
+	/**
+	 * Files parsed by one task without splitting it further.
+	 */
+	private static final int FILES_PER_TASK = 4;
+
+	private BatchSmellAnalyzer() {
+
+	}
+
+	/**
+	 * @param args
+	 *            The directory or zip archive to analyse, optionally followed by the number of
+	 *            threads and a .jsonl or .csv file to stream the smells to.
+	 * @throws IOException
+	 *             if the input could not be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: BatchSmellAnalyzer <directory|archive.zip> [threads] [report.jsonl|report.csv]");
+			System.exit(1);
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 1) {
+			threads = Integer.parseInt(args[1]);
+		}
+
+		long start = System.currentTimeMillis();
+		SmellResult result = analyse(new File(args[0]), threads);
+
+		if (args.length > 2) {
+			SmellReportSink sink = SmellDetector.createReportSink(new File(args[2]), true);
+			try {
+				SmellDetector.writeReport(sink);
+			} finally {
+				sink.close();
+			}
+		} else {
+			SmellDetector.setConsoleReport(true);
+			SmellDetector.generateReport(true);
+		}
+
+		LOGGER.info("Analysed " + result.analysedScripts.size() + " scripts in "
+		        + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Analyse all JavaScript in a directory or zip archive, replacing the findings of the current
+	 * crawl in SmellDetector.
+	 *
+	 * @param input
+	 *            The directory or zip archive.
+	 * @param threads
+	 *            Number of threads to parse the files with.
+	 * @return the merged findings of all files.
+	 * @throws IOException
+	 *             if the input could not be read.
+	 */
+	public static SmellResult analyse(File input, int threads) throws IOException {
+		List<SourceFile> files = new ArrayList<SourceFile>();
+		if (input.isDirectory()) {
+			readDirectory(input, input.getName(), files);
+		} else {
+			readArchive(input, files);
+		}
+		LOGGER.info("Found " + files.size() + " JavaScript and html files in " + input);
+
+		List<ParsedFile> parsedFiles;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			parsedFiles = pool.invoke(new ParseTask(files, 0, files.size()));
+		} finally {
+			pool.shutdown();
+		}
+
+		SmellDetector.reset();
+		for (ParsedFile parsedFile : parsedFiles) {
+			SmellDetector.merge(parsedFile.analyse());
+		}
+		return SmellDetector.getCrawlResult();
+	}
+
+	private static boolean isSourceFile(String name) {
+		String lower = name.toLowerCase();
+		return lower.endsWith(".js") || lower.endsWith(".html") || lower.endsWith(".htm");
+	}
+
+	private static void readDirectory(File dir, String path, List<SourceFile> files)
+	        throws IOException {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		/* the findings depend on the order of the files, so it must not depend on the file system */
+		Arrays.sort(children);
+		for (File child : children) {
+			String childPath = path + "/" + child.getName();
+			if (child.isDirectory()) {
+				readDirectory(child, childPath, files);
+			} else if (isSourceFile(child.getName())) {
+				files.add(new SourceFile(childPath, FileUtils.readFileToString(child, "UTF-8")));
+			}
+		}
+	}
+
+	private static void readArchive(File archive, List<SourceFile> files) throws IOException {
+		ZipFile zip = new ZipFile(archive);
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory() || !isSourceFile(entry.getName())) {
+					continue;
+				}
+				InputStream in = zip.getInputStream(entry);
+				try {
+					files.add(new SourceFile(archive.getName() + "/" + entry.getName(), IOUtils
+					        .toString(in, "UTF-8")));
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * Parse one .js or .html file.
+	 *
+	 * @param file
+	 *            The file.
+	 * @return the scripts of the file, without the ones that could not be parsed.
+	 */
+	static ParsedFile parseFile(SourceFile file) {
+		ParsedFile parsedFile = new ParsedFile();
+		if (file.name.toLowerCase().endsWith(".js")) {
+			parsedFile.addScript(file.name, file.content);
+			return parsedFile;
+		}
+
+		Document dom;
+		try {
+			dom = Helper.getDocument(file.content);
+		} catch (Exception e) {
+			LOGGER.warn("Unable to parse " + file.name + ": " + e.getMessage());
+			return parsedFile;
+		}
+
+		parsedFile.html = new SmellResult(null);
+		Set<String> jsInTag = new HashSet<String>();
+		SmellDetector.findJsInTags(dom, jsInTag);
+		parsedFile.html.jsInTagFound.addAll(jsInTag);
+
+		/* find script nodes in the html, as JSModifyProxyPlugin.createResponse() does */
+		NodeList nodes = dom.getElementsByTagName("script");
+		for (int i = 0; i < nodes.getLength(); i++) {
+			if (isJavaScript(nodes.item(i).getAttributes().getNamedItem("type"))
+			        || isJavaScript(nodes.item(i).getAttributes().getNamedItem("language"))) {
+				String content = nodes.item(i).getTextContent();
+				if (content.length() > 0) {
+					String scopeName = file.name + "script" + i;
+					parsedFile.html.addInlineJavaScript(getJSName(scopeName),
+					        content.split("\r\n|\r|\n").length);
+					parsedFile.addScript(scopeName, content);
+				}
+			}
+		}
+		return parsedFile;
+	}
+
+	private static boolean isJavaScript(Node attribute) {
+		return attribute != null && attribute.getTextContent() != null
+		        && attribute.getTextContent().toLowerCase().contains("javascript");
+	}
+
+	// the same name JSModifyProxyPlugin uses for a scope in the report
+	private static String getJSName(String scopeName) {
+		return scopeName.substring(scopeName.lastIndexOf('/') + 1).replace('.', '_');
+	}
+
+	/**
+	 * A .js or .html file read from the input.
+	 */
+	static class SourceFile {
+		final String name;
+		final String content;
+
+		SourceFile(String name, String content) {
+			this.name = name;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * The parsed scripts of a .js or .html file.
+	 */
+	static class ParsedFile {
+		// the findings of an html file that are not in its scripts, null for a .js file
+		SmellResult html;
+		final List<String> scopeNames = new ArrayList<String>();
+		final List<AstRoot> scripts = new ArrayList<AstRoot>();
+
+		void addScript(String scopeName, String code) {
+			String library = LibraryFingerprints.getDefault().match(code);
+			if (library != null) {
+				LOGGER.info("Not analysing " + scopeName + ", it is " + library);
+				return;
+			}
+			try {
+				scripts.add(SmellDetector.parse(code, scopeName));
+				scopeNames.add(scopeName);
+			} catch (RhinoException re) {
+				LOGGER.warn("Unable to analyse " + scopeName + " for code smells: " + re.getMessage());
+			}
+		}
+
+		/**
+		 * @return the findings of the file.
+		 */
+		SmellResult analyse() {
+			SmellResult result = html != null ? html : new SmellResult(null);
+			for (int i = 0; i < scripts.size(); i++) {
+				String scopeName = scopeNames.get(i);
+				SmellResult scriptResult = SmellDetector.analyseScript(getJSName(scopeName), scripts.get(i));
+				scriptResult.analysedScripts.add(scopeName);
+				if (html == null) {
+					return scriptResult;
+				}
+				result.merge(scriptResult);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Parses a range of files, splitting it in halves until it is small enough.
+	 */
+	private static class ParseTask extends RecursiveTask<List<ParsedFile>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<SourceFile> files;
+		private final int from;
+		private final int to;
+
+		ParseTask(List<SourceFile> files, int from, int to) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<ParsedFile> compute() {
+			if (to - from <= FILES_PER_TASK) {
+				List<ParsedFile> parsedFiles = new ArrayList<ParsedFile>();
+				for (int i = from; i < to; i++) {
+					parsedFiles.add(parseFile(files.get(i)));
+				}
+				return parsedFiles;
+			}
+
+			int middle = (from + to) / 2;
+			ParseTask left = new ParseTask(files, from, middle);
+			ParseTask right = new ParseTask(files, middle, to);
+			left.fork();
+			List<ParsedFile> rightFiles = right.compute();
+			/* keeping the file order keeps the report independent of the number of threads */
+			List<ParsedFile> parsedFiles = left.join();
+			parsedFiles.addAll(rightFiles);
+			return parsedFiles;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package codesmells;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes one CSV row (type,file,line,item) for every smell location. Fields with commas, quotes or
+ * line breaks are quoted as described in RFC 4180.
+ */
+public class CsvSmellReportSink implements SmellReportSink {
+
+	/**
+	 * The first row of a new file.
+	 */
+	public static final String HEADER = "type,file,line,item";
+
+	private final Writer out;
+
+	/**
+	 * @param file
+	 *            The file to write to. The header is written unless records are added to an
+	 *            existing file.
+	 * @param append
+	 *            true to add the records to the end of an existing file.
+	 * @throws IOException
+	 *             if the file could not be opened.
+	 */
+	public CsvSmellReportSink(File file, boolean append) throws IOException {
+		this(new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8"), !append
+		        || file.length() == 0);
+	}
+
+	/**
+	 * @param out
+	 *            The writer to write to, it is buffered by this sink.
+	 * @param writeHeader
+	 *            true to start with the header row.
+	 * @throws IOException
+	 *             if the header could not be written.
+	 */
+	public CsvSmellReportSink(Writer out, boolean writeHeader) throws IOException {
+		this.out = new BufferedWriter(out);
+		if (writeHeader) {
+			this.out.write(HEADER);
+			this.out.write('\n');
+		}
+	}
+
+	@Override
+	public void write(SmellType type, SmellLocation location) throws IOException {
+		out.write(type.name());
+		out.write(',');
+		writeField(location.getJsFile());
+		out.write(',');
+		out.write(Integer.toString(location.getLineNumber()));
+		out.write(',');
+		writeField(location.getSmellyItemName());
+		out.write('\n');
+	}
+
+	private void writeField(String s) throws IOException {
+		if (s == null) {
+			return;
+		}
+		boolean quote = false;
+		for (int i = 0; i < s.length() && !quote; i++) {
+			char c = s.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			out.write(s);
+			return;
+		}
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"') {
+				out.write('"');
+			}
+			out.write(c);
+		}
+		out.write('"');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -1,11 +1,15 @@
 package codesmells;
 
+import java.io.Serializable;
+
 /**
  * FunctionInfo is used to store informations about a JavaScript function
  * 
  * @author Amin Milani Fard
  */
-class FunctionInfo{
+class FunctionInfo implements Serializable{
+
+	private static final long serialVersionUID = 1L;
 
 	String name;
 	int numberOfParameters;
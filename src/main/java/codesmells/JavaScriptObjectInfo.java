@@ -1,13 +1,18 @@
 package codesmells;
 
-import java.util.ArrayList;
+import java.io.Serializable;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * JavaScriptObjectInfo is used to store informations about a JavaScript object
  * 
  * @author Amin Milani Fard
  */
-public class JavaScriptObjectInfo {
+public class JavaScriptObjectInfo implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	private String name = "";
 	private String type = "";
 	private String prototype = "";
@@ -17,12 +22,13 @@ public class JavaScriptObjectInfo {
 	
 	//	usedInheritedPropetries = intersection of ownPropetries and inheritedPropetries 
 	//	usedInheritedPropetries= inheritedPropetries - ownPropetries
-	private ArrayList<String> ownPropetries = new ArrayList<String>();				// properties that are defined for the object
-	private ArrayList<String> inheritedPropetries = new ArrayList<String>();		// properties that are used but not defined for the object
-	private ArrayList<String> usedInheritedPropetries = new ArrayList<String>();	// Inherited properties used or override
-	private ArrayList<String> notUsedInheritedPropetries = new ArrayList<String>();	// Inherited properties not used or override
+	// properties are kept in insertion ordered sets, so adding and looking up a property does not depend on the number of properties
+	private Set<String> ownPropetries = new LinkedHashSet<String>();				// properties that are defined for the object
+	private Set<String> inheritedPropetries = new LinkedHashSet<String>();		// properties that are used but not defined for the object
+	private Set<String> usedInheritedPropetries = new LinkedHashSet<String>();	// Inherited properties used or override
+	private Set<String> notUsedInheritedPropetries = new LinkedHashSet<String>();	// Inherited properties not used or override
 
-	private ArrayList<String> usedPropetries = new ArrayList<String>();	// Properties which are used (in the right hand side) which might be own or inherited
+	private Set<String> usedPropetries = new LinkedHashSet<String>();	// Properties which are used (in the right hand side) which might be own or inherited
 
 	
 	public JavaScriptObjectInfo(String name, int ASTNodeDepth, int lineNumber){
@@ -31,23 +37,38 @@ public class JavaScriptObjectInfo {
 		this.lineNumber = lineNumber;
 	}
 
+	/**
+	 * Copying an object, so the copy and the original can be changed independently.
+	 * 
+	 * @param other
+	 *            The object to copy.
+	 */
+	public JavaScriptObjectInfo(JavaScriptObjectInfo other){
+		this(other.name, other.ASTdepth, other.lineNumber);
+		this.type = other.type;
+		this.prototype = other.prototype;
+		this.jsFileName = other.jsFileName;
+		this.ownPropetries.addAll(other.ownPropetries);
+		this.inheritedPropetries.addAll(other.inheritedPropetries);
+		this.usedInheritedPropetries.addAll(other.usedInheritedPropetries);
+		this.notUsedInheritedPropetries.addAll(other.notUsedInheritedPropetries);
+		this.usedPropetries.addAll(other.usedPropetries);
+	}
+
 	public void setType(String type){
 		this.type = type;
 	}
 	
 	public void addOwnProperty(String p){
-		if (!ownPropetries.contains(p))
-			ownPropetries.add(p);
+		ownPropetries.add(p);
 	}
 	
 	public void addInheritedPropetries(String p){
-		if (!inheritedPropetries.contains(p))
-			inheritedPropetries.add(p);
+		inheritedPropetries.add(p);
 	}
 
 	public void addUsedProperty(String p){
-		if (!usedPropetries.contains(p))
-			usedPropetries.add(p);
+		usedPropetries.add(p);
 	}
 	
 	public void setPrototype(String p){
@@ -80,45 +101,45 @@ public class JavaScriptObjectInfo {
 	}
 
 
-	public ArrayList<String> getOwnPropetries() {
+	public Set<String> getOwnPropetries() {
 		return ownPropetries;
 	}
 
-	public void setOwnPropetries(ArrayList<String> ownPropetries) {
+	public void setOwnPropetries(Set<String> ownPropetries) {
 		this.ownPropetries = ownPropetries;
 	}
 
-	public ArrayList<String> getInheritedPropetries() {
+	public Set<String> getInheritedPropetries() {
 		return inheritedPropetries;
 	}
 
-	public void setInheritedPropetries(ArrayList<String> inheritedPropetries) {
+	public void setInheritedPropetries(Set<String> inheritedPropetries) {
 		this.inheritedPropetries = inheritedPropetries;
 	}
 
-	public ArrayList<String> getUsedInheritedPropetries() {
+	public Set<String> getUsedInheritedPropetries() {
 		return usedInheritedPropetries;
 	}
 
-	public void setUsedInheritedPropetries(ArrayList<String> usedInheritedPropetries) {
+	public void setUsedInheritedPropetries(Set<String> usedInheritedPropetries) {
 		this.usedInheritedPropetries = usedInheritedPropetries;
 	}
 
-	public ArrayList<String> getNotUsedInheritedPropetries() {
+	public Set<String> getNotUsedInheritedPropetries() {
 		return notUsedInheritedPropetries;
 	}
 
 	public void setNotUsedInheritedPropetries(
-			ArrayList<String> notUsedInheritedPropetries) {
+			Set<String> notUsedInheritedPropetries) {
 		this.notUsedInheritedPropetries = notUsedInheritedPropetries;
 	}
 
 	
-	public ArrayList<String> getUsedPropetries() {
+	public Set<String> getUsedPropetries() {
 		return usedPropetries;
 	}
 
-	public void setUsedPropetries(ArrayList<String> usedPropetries) {
+	public void setUsedPropetries(Set<String> usedPropetries) {
 		this.usedPropetries = usedPropetries;
 	}
 
@@ -154,7 +175,7 @@ public class JavaScriptObjectInfo {
 
     @Override
     public int hashCode() {
-        return 1;
+        return name.hashCode();
     }
 	
 }
@@ -0,0 +1,96 @@
+package codesmells;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes one JSON object per line for every smell location, e.g.
+ * {"type":"LONG_METHOD","file":"app_js","line":12,"item":"init"}
+ */
+public class JsonLinesSmellReportSink implements SmellReportSink {
+
+	private final Writer out;
+
+	/**
+	 * @param file
+	 *            The file to write to.
+	 * @param append
+	 *            true to add the records to the end of an existing file.
+	 * @throws IOException
+	 *             if the file could not be opened.
+	 */
+	public JsonLinesSmellReportSink(File file, boolean append) throws IOException {
+		this(new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8"));
+	}
+
+	/**
+	 * @param out
+	 *            The writer to write to, it is buffered by this sink.
+	 */
+	public JsonLinesSmellReportSink(Writer out) {
+		this.out = new BufferedWriter(out);
+	}
+
+	@Override
+	public void write(SmellType type, SmellLocation location) throws IOException {
+		out.write("{\"type\":\"");
+		out.write(type.name());
+		out.write("\",\"file\":");
+		writeString(location.getJsFile());
+		out.write(",\"line\":");
+		out.write(Integer.toString(location.getLineNumber()));
+		out.write(",\"item\":");
+		writeString(location.getSmellyItemName());
+		out.write("}\n");
+	}
+
+	// writing a JSON string, or null
+	private void writeString(String s) throws IOException {
+		if (s == null) {
+			out.write("null");
+			return;
+		}
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"':
+					out.write("\\\"");
+					break;
+				case '\\':
+					out.write("\\\\");
+					break;
+				case '\n':
+					out.write("\\n");
+					break;
+				case '\r':
+					out.write("\\r");
+					break;
+				case '\t':
+					out.write("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						out.write(String.format("\\u%04x", (int) c));
+					} else {
+						out.write(c);
+					}
+			}
+		}
+		out.write('"');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
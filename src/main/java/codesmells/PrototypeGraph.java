@@ -0,0 +1,90 @@
+package codesmells;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PrototypeGraph links JavaScript objects to their prototype objects by name. The length of the
+ * prototype chain of every object is computed once and memoized, so the chains of all objects are
+ * resolved in linear time. Cycles in the prototype links (which static analysis may produce) end
+ * the chain instead of being followed over and over.
+ */
+class PrototypeGraph {
+
+	private final Map<String, JavaScriptObjectInfo> objects;
+
+	// number of distinct objects in the prototype chain starting at an object, including the object
+	private final Map<String, Integer> chainLengths = new HashMap<String, Integer>();
+
+	/**
+	 * @param objects
+	 *            The objects by name.
+	 */
+	PrototypeGraph(Map<String, JavaScriptObjectInfo> objects) {
+		this.objects = objects;
+	}
+
+	/**
+	 * @param name
+	 *            Name of an object.
+	 * @return the prototype object of the object, or null if the object or its prototype is unknown
+	 */
+	JavaScriptObjectInfo getPrototype(String name) {
+		JavaScriptObjectInfo o = objects.get(name);
+		if (o == null || o.getPrototype().equals(""))
+			return null;
+		return objects.get(o.getPrototype());
+	}
+
+	/**
+	 * @param name
+	 *            Name of an object.
+	 * @return the number of distinct objects in the prototype chain starting at the object, the
+	 *         object included, or 0 if the object is unknown
+	 */
+	int getChainLength(String name) {
+		Integer known = chainLengths.get(name);
+		if (known != null)
+			return known;
+
+		// following the prototypes until an object with a known length, an unknown object or a cycle is reached
+		List<String> path = new ArrayList<String>();
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		int length = 0;
+		String current = name;
+		while (true) {
+			known = chainLengths.get(current);
+			if (known != null) {
+				length = known;
+				break;
+			}
+			JavaScriptObjectInfo o = objects.get(current);
+			if (o == null) {
+				length = 0;
+				break;
+			}
+			Integer cycleStart = positions.get(current);
+			if (cycleStart != null) {
+				// every object on the cycle reaches all objects of the cycle
+				int cycleLength = path.size() - cycleStart;
+				for (int i = cycleStart; i < path.size(); i++)
+					chainLengths.put(path.get(i), cycleLength);
+				path = path.subList(0, cycleStart);
+				length = cycleLength;
+				break;
+			}
+			positions.put(current, path.size());
+			path.add(current);
+			current = o.getPrototype();
+		}
+
+		// the objects before the end of the path are one object longer than their prototype
+		for (int i = path.size() - 1; i >= 0; i--) {
+			length++;
+			chainLengths.put(path.get(i), length);
+		}
+		return chainLengths.containsKey(name) ? chainLengths.get(name) : 0;
+	}
+}
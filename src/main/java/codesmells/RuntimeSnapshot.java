@@ -0,0 +1,106 @@
+package codesmells;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RuntimeSnapshot keeps the global variables and the properties of the candidate objects found in
+ * the browser in one state of the application. Snapshots are compared with
+ * {@link #getChanges(RuntimeSnapshot)}, so the dynamic smell analysis only has to look at the
+ * globals and objects that are new or changed since the previous state.
+ */
+public class RuntimeSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Set<String> globals = new LinkedHashSet<String>();
+
+	// own and inherited properties by object name, in the order the objects were found
+	private final Map<String, Set<String>> ownProperties = new LinkedHashMap<String, Set<String>>();
+	private final Map<String, Set<String>> inheritedProperties =
+	        new LinkedHashMap<String, Set<String>>();
+
+	public void addGlobal(String name) {
+		globals.add(name);
+	}
+
+	/**
+	 * @param name
+	 *            Name of the object.
+	 * @param own
+	 *            Own properties of the object.
+	 * @param inherited
+	 *            Inherited properties of the object.
+	 */
+	public void addObject(String name, Collection<String> own, Collection<String> inherited) {
+		ownProperties.put(name, new LinkedHashSet<String>(own));
+		inheritedProperties.put(name, new LinkedHashSet<String>(inherited));
+	}
+
+	public Set<String> getGlobals() {
+		return Collections.unmodifiableSet(globals);
+	}
+
+	public Set<String> getObjectNames() {
+		return Collections.unmodifiableSet(ownProperties.keySet());
+	}
+
+	public Set<String> getOwnProperties(String name) {
+		return Collections.unmodifiableSet(ownProperties.get(name));
+	}
+
+	public Set<String> getInheritedProperties(String name) {
+		return Collections.unmodifiableSet(inheritedProperties.get(name));
+	}
+
+	/**
+	 * @param previous
+	 *            The snapshot of the previous state, or null if there is none.
+	 * @return a snapshot with the globals that are not in the previous snapshot and the objects that
+	 *         are not in the previous snapshot or have other properties.
+	 */
+	public RuntimeSnapshot getChanges(RuntimeSnapshot previous) {
+		if (previous == null)
+			return this;
+
+		RuntimeSnapshot changes = new RuntimeSnapshot();
+		for (String global : globals) {
+			if (!previous.globals.contains(global))
+				changes.addGlobal(global);
+		}
+		for (String name : ownProperties.keySet()) {
+			if (!ownProperties.get(name).equals(previous.ownProperties.get(name))
+			        || !inheritedProperties.get(name).equals(previous.inheritedProperties.get(name)))
+				changes.addObject(name, ownProperties.get(name), inheritedProperties.get(name));
+		}
+		return changes;
+	}
+
+	/**
+	 * @param changes
+	 *            Globals and objects that were added or changed after this snapshot was taken.
+	 * @return a new snapshot with the globals and objects of this snapshot and the changes.
+	 */
+	public RuntimeSnapshot update(RuntimeSnapshot changes) {
+		RuntimeSnapshot updated = new RuntimeSnapshot();
+		updated.globals.addAll(globals);
+		updated.globals.addAll(changes.globals);
+		updated.ownProperties.putAll(ownProperties);
+		updated.ownProperties.putAll(changes.ownProperties);
+		updated.inheritedProperties.putAll(inheritedProperties);
+		updated.inheritedProperties.putAll(changes.inheritedProperties);
+		return updated;
+	}
+
+	/**
+	 * @return true if the snapshot has no globals and no objects
+	 */
+	public boolean isEmpty() {
+		return globals.isEmpty() && ownProperties.isEmpty();
+	}
+}
@@ -0,0 +1,199 @@
+package codesmells;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.mozilla.javascript.RhinoException;
+
+/**
+ * Runs the static smell analysis of JavaScript files in the background, so the proxy can return the
+ * instrumented code to the browser without waiting for the analysis. The number of waiting files is
+ * bounded; when the queue is full the thread that submits a file analyses it itself, which slows
+ * down the proxy instead of piling up source code in memory. New smells of a file are passed to the
+ * {@link SmellListener}s when the file is merged. {@link #awaitPage(String)} waits for the scripts
+ * of one page before its objects are probed, {@link #drain()} waits for all scripts before the
+ * final smell report is generated. With a {@link SmellResultCache} files that were analysed in an
+ * earlier crawl are read from the cache instead.
+ */
+public final class SmellAnalysisQueue {
+
+	private static final Logger LOGGER = Logger.getLogger(SmellAnalysisQueue.class.getName());
+
+	private static final int QUEUE_CAPACITY = 64;
+
+	private static final Object LOCK = new Object();
+
+	// number of submitted files that have not been analysed yet
+	private static final AtomicInteger pending = new AtomicInteger();
+
+	private static final ThreadPoolExecutor executor = createExecutor();
+
+	// analyses of the scripts of a page by the page URL, until the page is waited for
+	private static final ConcurrentHashMap<String, List<Future<?>>> pageAnalyses =
+	        new ConcurrentHashMap<String, List<Future<?>>>();
+
+	// cache of analysed files, null to analyse every file
+	private static volatile SmellResultCache resultCache = null;
+
+	private SmellAnalysisQueue() {
+
+	}
+
+	private static ThreadPoolExecutor createExecutor() {
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		ThreadPoolExecutor pool =
+		        new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+		                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+			                private final AtomicInteger count = new AtomicInteger();
+
+			                @Override
+			                public Thread newThread(Runnable r) {
+				                Thread t = new Thread(r, "SmellAnalysis-" + count.incrementAndGet());
+				                t.setDaemon(true);
+				                return t;
+			                }
+		                }, new ThreadPoolExecutor.CallerRunsPolicy());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * @param cache
+	 *            The cache to read and keep analysed files in, or null to analyse every file.
+	 */
+	public static void setResultCache(SmellResultCache cache) {
+		resultCache = cache;
+	}
+
+	/**
+	 * Queue a JavaScript file for smell analysis.
+	 *
+	 * @param jsName
+	 *            Name of the file used in the report.
+	 * @param code
+	 *            The original (not instrumented) JavaScript code.
+	 * @param scopeName
+	 *            Name of the scope (the URL mostly).
+	 * @param pageUrl
+	 *            URL of the page the script belongs to, or null if it is not known.
+	 */
+	public static void submit(final String jsName, final String code, final String scopeName,
+	        String pageUrl) {
+		pending.incrementAndGet();
+		Future<?> analysis = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					SmellResultCache cache = resultCache;
+					if (cache == null) {
+						SmellDetector.merge(SmellDetector.analyseScript(jsName, code, scopeName));
+					} else {
+						SmellDetector.merge(cache.analyseScript(jsName, code, scopeName));
+					}
+				} catch (RhinoException re) {
+					LOGGER.warn("Unable to analyse " + scopeName + " for code smells: "
+					        + re.getMessage());
+				} catch (RuntimeException e) {
+					LOGGER.error("Smell analysis of " + scopeName + " failed", e);
+				} finally {
+					if (pending.decrementAndGet() == 0) {
+						synchronized (LOCK) {
+							LOCK.notifyAll();
+						}
+					}
+				}
+			}
+		});
+
+		if (pageUrl != null) {
+			String page = pageKey(pageUrl);
+			List<Future<?>> analyses = new ArrayList<Future<?>>();
+			List<Future<?>> existing = pageAnalyses.putIfAbsent(page, analyses);
+			if (existing != null) {
+				analyses = existing;
+			}
+			synchronized (analyses) {
+				/* forget the finished analyses of pages that are not waited for */
+				for (Iterator<Future<?>> it = analyses.iterator(); it.hasNext();) {
+					if (it.next().isDone()) {
+						it.remove();
+					}
+				}
+				analyses.add(analysis);
+			}
+		}
+	}
+
+	// the fragment does not change the scripts of a page
+	private static String pageKey(String pageUrl) {
+		int fragment = pageUrl.indexOf('#');
+		return fragment < 0 ? pageUrl : pageUrl.substring(0, fragment);
+	}
+
+	/**
+	 * Wait until the submitted scripts of a page are analysed. Scripts of other pages may still be
+	 * waiting, see {@link #drain()}.
+	 *
+	 * @param pageUrl
+	 *            URL of the page.
+	 */
+	public static void awaitPage(String pageUrl) {
+		if (pageUrl == null) {
+			return;
+		}
+		List<Future<?>> analyses = pageAnalyses.remove(pageKey(pageUrl));
+		if (analyses == null) {
+			return;
+		}
+		List<Future<?>> waiting;
+		synchronized (analyses) {
+			waiting = new ArrayList<Future<?>>(analyses);
+		}
+		for (Future<?> analysis : waiting) {
+			try {
+				analysis.get();
+			} catch (InterruptedException e) {
+				LOGGER.warn("Interrupted while waiting for the smell analysis of " + pageUrl);
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				// the analysis logs its own errors
+			}
+		}
+	}
+
+	/**
+	 * Wait until all submitted files are analysed.
+	 */
+	public static void drain() {
+		synchronized (LOCK) {
+			while (pending.get() > 0) {
+				try {
+					LOCK.wait();
+				} catch (InterruptedException e) {
+					LOGGER.warn("Interrupted while waiting for the smell analysis to finish");
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		pageAnalyses.clear();
+	}
+
+	/**
+	 * @return the number of submitted files that have not been analysed yet
+	 */
+	public static int getPending() {
+		return pending.get();
+	}
+}
@@ -3,15 +3,25 @@ package codesmells;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.log4j.Logger;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Parser;
 import org.mozilla.javascript.Token;
 import org.mozilla.javascript.ast.*;
+import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 /**
  * This is the main JSNose smell detection class 
@@ -20,6 +30,8 @@ import org.w3c.dom.Node;
  */
 public class SmellDetector {
 
+	private static final Logger LOGGER = Logger.getLogger(SmellDetector.class.getName());
+
 	// JSNose parameters for smell detection
 	private static final int MAX_METHID_LENGTH = 50;			// function/method length
 	private static final int MAX_NUMBER_OF_PARAMETERS = 5;		// function parameter
@@ -31,14 +43,50 @@ public class SmellDetector {
 	public static final int MIN_OBJECT_PROPERTIES = 3;			// lazy object
 	public static final int MAX_OBJECT_PROPERTIES = 20;			// large object
 	private static final int MAX_OBJECT_LOC = 750;				// large object
+
+	/**
+	 * Version of the static analysis, part of the key of cached results in SmellResultCache. It has
+	 * to be changed whenever the findings of analyseScript() for the same code change.
+	 */
+	public static final String ANALYZER_VERSION = "2";
 	
 
 	private AstNode ASTNode;
 
-	private static ArrayList<JavaScriptObjectInfo> jsObjects = new ArrayList<JavaScriptObjectInfo>();
-	
-	private static ArrayList<FunctionInfo> jsFunctions = new ArrayList<FunctionInfo>();
+	// findings of the file that is being analysed by this detector, merged into crawlResult by merge()
+	private SmellResult result = new SmellResult(null);
+
+	// findings of all files of the current crawl, changed only while holding the SmellDetector lock
+	private static SmellResult crawlResult = new SmellResult(null);
 
+	// the detector analyseScript() visits all files of a crawl with, so the objects and the state of
+	// the visitor (e.g. the current object) carry over from one file to the next as in one script
+	private static SmellDetector crawlDetector = new SmellDetector();
+
+	// names of the objects of the crawl the file analysed by this detector found or changed
+	private final Set<String> fileObjects = new LinkedHashSet<String>();
+
+	// listeners that are told about new smells when a file is merged
+	private static final List<SmellListener> smellListeners = new CopyOnWriteArrayList<SmellListener>();
+
+	// sinks the final smell report is streamed to by writeReport(), e.g. JSON Lines or CSV files
+	private static final List<SmellReportSink> reportSinks = new CopyOnWriteArrayList<SmellReportSink>();
+
+	/**
+	 * File the report of a crawl is written to by writeReport(), in addition to the registered sinks.
+	 */
+	public static final String DEFAULT_REPORT_FILE = "SmellReport.jsonl";
+
+	// file the text report is appended to by writeReportTofile(), next to the coverage report
+	private static final String TEXT_REPORT_FILE = "SmellReport.txt";
+
+	private static volatile File reportFile = new File(DEFAULT_REPORT_FILE);
+
+	// the report and the object analysis are only printed to the console if asked for
+	private static volatile boolean consoleReport = false;
+
+	// false when the objects changed since analyseObjecsList() last computed the object smells
+	private static boolean objectSmellsUpToDate = false;
 
 	private String candidateObjectName = "";		// this will be set to name of any variable and if detected as object will be added to jsObjects
 	private boolean nextNameIsProperty = false;		// this is to distinguish properties of an object from other var/names
@@ -48,14 +96,13 @@ public class SmellDetector {
 	private boolean callBackFound = false;
 	
 	private int currentObjectNodeDepth = 0;	// This is node.depth() for the current object. A property would be added if its node.depth() is higher than currentObjectNodeDepth
-	private int currentObjectIndex = 0;		// This is the index of current object in jsObjects list (used to add properties/prototype)
+	private JavaScriptObjectInfo currentObject = null;	// This is the current object (used to add properties/prototype), see getCurrentObject()
 	private String currentIdentifier = "";	// this is to keep the latest identifier as it may be detected as an object following the pattern x=Object.create
 	private String currentPrototype = "";	// this is to keep the prototype x found at Object.create(x)
 
 	private int consecutivePropertyGet = 0;	// This is to store number of consecutive getting of property used to detect long message chain 
 	private int lastMessageChain = 0;		// This is to store last message chain using consecutivePropertyGet 
 	private boolean ignoreDepthChange = false;		// This is also used to decide for a.b.c pattern that c is a property of b not a separate identifier 
-	private static HashSet<SmellLocation> longMessageFound = new HashSet<SmellLocation>();	// keeping line number where a long message occurred
 	
 	private boolean LHS = false;			// This is to decide if the ASTNode is at the left hand-side of an assignment 
 	private int assignmentNodeDepth = 0;	// This is to store ASTNode depth of assignment to be used for detecting LHS value 
@@ -63,66 +110,21 @@ public class SmellDetector {
 	
 	
 	private boolean CatchClause = false;	// To detect empty Catch Clauses
-	private static HashSet<SmellLocation> emptyCatchFound = new HashSet<SmellLocation>();	// keeping line number where an empty catch occurred
 
-	private static HashSet<SmellLocation> longMethodFound = new HashSet<SmellLocation>();	// keeping line number where a long method is defined
-
-	private static HashSet<SmellLocation> longParameterListFound = new HashSet<SmellLocation>();	// keeping line number where a long parameter list is found
-
-	private static HashSet<SmellLocation> switchFound = new HashSet<SmellLocation>();	// keeping line number where a switch statement is found
-	
 	private int lastFunctionDepth = 0;
 	private int scopeChainLength = 0;
-	private static HashSet<SmellLocation> closureSmellLocation = new HashSet<SmellLocation>();	// keeping line number of the inner function of a deep closure
-	private static HashSet<SmellLocation> nestedCallBackFound = new HashSet<SmellLocation>();	// keeping line number of the inner function of a deep closure
-
-	private static int inlineJavaScriptLines = 0;	// keep the count of js code in <script> tags
-	private static HashSet<String> inlineJavaScriptScopeName = new HashSet<String>();	// keeping scope name (js file name) where inline JavaScript is detected
-	private static int NumberOfInTagJS1 = 0; 
-	private static HashSet<String> jsInTagFound = new HashSet<String>();			// keeping occurrences of unique js in html tags
-	private static HashSet<SmellLocation> CSSinJS = new HashSet<SmellLocation>();	// keeping line number where CSS is used in JS
-		
-	
-	private static HashSet<String> globals = new HashSet<String>();	// keeping global variables
-	
-	public static void setGlobals(HashSet<String> globals) {
-		for (String g: globals)
-			SmellDetector.globals.add(g);
-	}
-
-	
-	private static HashSet<SmellLocation> refusedBequestObjLocation = new HashSet<SmellLocation>();	// keeping objects which refuse bequests
-
-	private static HashSet<SmellLocation> lazyObjectsLocation = new HashSet<SmellLocation>();	// keeping lazy objects
 
-	private static HashSet<SmellLocation> largeObjectsLocation = new HashSet<SmellLocation>();	// keeping large objects
-	
-	private static HashSet<SmellLocation> longPrototypeChainObjLocation = new HashSet<SmellLocation>();	// keeping objects with long prototype chain
-	
-	// list of objects to ignore in reporting large/lazy object and refused bequest
-	private static ArrayList<String> objectsToIgnore = new ArrayList<String>();	
-	
-	
-	private boolean checkForUnreachable = false;
-	private int levelToCheckForReachability = 0;
-	private static HashSet<SmellLocation> unReachable = new HashSet<SmellLocation>();	// keeping unreachable code line number
+	private AstRoot globalsHarvestedRoot = null;	// the AstRoot whose global symbols are already added to globals
 
 	
-	/**
-	 * This list is for keeping name of candidate javascript objects found in the code
-	 * they are called candidate since some my not be actual objects
-	 */
-	private static List<String> candidateJSObjectList = new ArrayList<String>();
-
-	public static List<String> getcandidateJSObjectList(){
-		return candidateJSObjectList;
+	public static synchronized void setGlobals(HashSet<String> globals) {
+		crawlResult.globals.addAll(globals);
 	}
+
 	
-	
-	
-	public SmellDetector() {
-		ASTNode = null;
-		// ignore these objects when reporting object-based smells
+	// list of objects to ignore in reporting large/lazy object and refused bequest
+	private static final HashSet<String> objectsToIgnore = new HashSet<String>();
+	static {
 		objectsToIgnore.add("window");
 		objectsToIgnore.add("document");
 		objectsToIgnore.add("top");
@@ -142,90 +144,342 @@ public class SmellDetector {
 		objectsToIgnore.add("setTimeout");
 	}
 	
+	
+	private boolean checkForUnreachable = false;
+	private int levelToCheckForReachability = 0;
+
+	
+	/**
+	 * This list is for keeping name of candidate javascript objects found in the code
+	 * they are called candidate since some my not be actual objects
+	 * 
+	 * @return a copy of the candidate list, since proxy threads may merge new candidates while the crawler iterates it
+	 */
+	public static synchronized List<String> getcandidateJSObjectList(){
+		return new ArrayList<String>(crawlResult.candidateJSObjectList);
+	}
+	
+	
+	
+	public SmellDetector() {
+		ASTNode = null;
+	}
+	
 
 	public void SetASTNode(AstNode node) {
 		ASTNode = node;
 	}
 
-	private static String jsFileName;
+	// name of the file analysed by this detector
+	private String jsFileName;
+
+	// name of the last merged file, used for objects that are found at runtime
+	private static String lastJSFileName;
 	
-	public static void setJSName(String jsName) {
-		SmellDetector.jsFileName = jsName;
+	public void setJSName(String jsName) {
+		jsFileName = jsName;
+		result = new SmellResult(jsName);
+		fileObjects.clear();
 	}
-	
-	
+
+	/**
+	 * @return the findings of the file analysed by this detector
+	 */
+	public SmellResult getResult() {
+		return result;
+	}
+
+
+	/**
+	 * Statically analysing a JavaScript file for code smells.
+	 * 
+	 * @param jsName
+	 *            Name of the file used in the report.
+	 * @param code
+	 *            The JavaScript code.
+	 * @param scopeName
+	 *            Name of the scope (the URL mostly) for the parser.
+	 * @return the findings of the file
+	 */
+	public static SmellResult analyseScript(String jsName, String code, String scopeName){
+		return analyseScript(jsName, parse(code, scopeName));
+	}
+
+
+	/**
+	 * Parsing a JavaScript file, which can be done concurrently before analysing it.
+	 * 
+	 * @param code
+	 *            The JavaScript code.
+	 * @param scopeName
+	 *            Name of the scope (the URL mostly) for the parser.
+	 * @return the AST of the code
+	 */
+	public static AstRoot parse(String code, String scopeName){
+		CompilerEnvirons compilerEnvirons = new CompilerEnvirons();
+		Parser rhinoParser = new Parser(compilerEnvirons, compilerEnvirons.getErrorReporter());
+		return rhinoParser.parse(code, scopeName, 0);
+	}
+
+
+	/**
+	 * Statically analysing a parsed JavaScript file for code smells. An object of the file is
+	 * looked up in the objects of all files analysed so far, so files are analysed one at a time
+	 * and the findings depend on the order of the files, as when they are loaded by the browser.
+	 * The returned result keeps a copy of the objects the file found or changed.
+	 * 
+	 * @param jsName
+	 *            Name of the file used in the report.
+	 * @param ast
+	 *            The AST of the file, see {@link #parse(String, String)}.
+	 * @return the findings of the file
+	 */
+	public static synchronized SmellResult analyseScript(String jsName, AstRoot ast){
+		final SmellDetector smellDetector = crawlDetector;
+		smellDetector.setJSName(jsName);
+		ast.visit(new NodeVisitor() {
+			@Override
+			public boolean visit(AstNode node) {
+				smellDetector.SetASTNode(node);
+				smellDetector.analyseAstNode();
+				return true;
+			}
+		});
+		objectSmellsUpToDate = false;
+
+		SmellResult fileResult = smellDetector.getResult();
+		for (String name : smellDetector.fileObjects)
+			fileResult.mergeObject(crawlResult.getObject(name));
+		return fileResult;
+	}
+
+
+	/**
+	 * Merging the findings of one file into the findings of the whole crawl. This is the only place
+	 * the crawl findings are changed during static analysis, so files can be analysed concurrently.
+	 * The smells that were not found before are passed to the smell listeners, the full report is
+	 * only generated on demand by generateReport().
+	 */
+	public static void merge(SmellResult fileResult){
+		Map<SmellType, Set<SmellLocation>> newSmells;
+		synchronized (SmellDetector.class) {
+			newSmells = crawlResult.getNewSmells(fileResult);
+			crawlResult.merge(fileResult);
+			objectSmellsUpToDate = false;
+			if (fileResult.getJsFileName() != null)
+				lastJSFileName = fileResult.getJsFileName();
+		}
+
+		if (!newSmells.isEmpty()){
+			for (SmellListener listener : smellListeners)
+				listener.smellsFound(fileResult.getJsFileName(), newSmells);
+		}
+	}
+
+
+	/**
+	 * @param listener
+	 *            The listener to tell about new smells.
+	 */
+	public static void addSmellListener(SmellListener listener){
+		smellListeners.add(listener);
+	}
+
+
+	/**
+	 * @param listener
+	 *            The listener to remove.
+	 */
+	public static void removeSmellListener(SmellListener listener){
+		smellListeners.remove(listener);
+	}
+
+
+	/**
+	 * @param sink
+	 *            The sink to stream the final smell report to, see {@link #writeReport()}. The sink
+	 *            is not closed by SmellDetector.
+	 */
+	public static void addReportSink(SmellReportSink sink){
+		reportSinks.add(sink);
+	}
+
+
+	/**
+	 * @param sink
+	 *            The sink to remove.
+	 */
+	public static void removeReportSink(SmellReportSink sink){
+		reportSinks.remove(sink);
+	}
+
+
+	/**
+	 * @param file
+	 *            The .jsonl or .csv file writeReport() writes the report of a crawl to, replacing
+	 *            its content, or null to only use the registered sinks. The default is
+	 *            {@link #DEFAULT_REPORT_FILE}.
+	 */
+	public static void setReportFile(File file){
+		reportFile = file;
+	}
+
+
+	/**
+	 * @param echo
+	 *            true to print the report and the object analysis to the console, false by default.
+	 */
+	public static void setConsoleReport(boolean echo){
+		consoleReport = echo;
+	}
+
+
+	public static boolean isConsoleReport(){
+		return consoleReport;
+	}
+
+
+	/**
+	 * @param file
+	 *            A .csv file, or a JSON Lines file for any other extension.
+	 * @param append
+	 *            true to add the records to the end of the file, false to replace its content.
+	 * @return a sink that writes to the file.
+	 * @throws IOException
+	 *             if the file could not be opened.
+	 */
+	public static SmellReportSink createReportSink(File file, boolean append) throws IOException {
+		if (file.getName().toLowerCase().endsWith(".csv")) {
+			return new CsvSmellReportSink(file, append);
+		}
+		return new JsonLinesSmellReportSink(file, append);
+	}
+
+
+	/**
+	 * Marking a script as analysed in the current crawl.
+	 * 
+	 * @param key
+	 *            A key that identifies the content of the script.
+	 * @return true if the script was not analysed before
+	 */
+	public static synchronized boolean markAnalysed(String key){
+		return crawlResult.analysedScripts.add(key);
+	}
+
+
+	/**
+	 * Forgetting all findings, to start a new crawl in the same JVM. Scripts that are still queued
+	 * for analysis should be drained first, see {@link SmellAnalysisQueue#drain()}.
+	 */
+	public static synchronized void reset(){
+		crawlResult = new SmellResult(null);
+		crawlDetector = new SmellDetector();
+		lastJSFileName = null;
+		objectSmellsUpToDate = false;
+	}
+
+
+	/**
+	 * @return the number of lookups of objects and functions by name in the findings of the
+	 *         current crawl, see SmellResult.getLookups()
+	 */
+	static synchronized long getCrawlLookups(){
+		return crawlResult.getLookups();
+	}
+
+
+	/**
+	 * @return a copy of the findings of the current crawl
+	 */
+	public static synchronized SmellResult getCrawlResult(){
+		return new SmellResult(null).merge(crawlResult);
+	}
+
+
 	/**
 	 * Showing list of smells when all AST nodes were visited. The method is static to be called in JSModifyProxyPlugin.modifyJS()
 	 */
-	public static void generateReport(boolean writeTofile){
-			
-		System.out.println("***************************************");
-		System.out.println("********** CODE SMELL REPORT **********");
-		System.out.println("***************************************");
+	public static synchronized void generateReport(boolean writeTofile){
+		StringBuilder report = new StringBuilder();
+		try {
+			writeTextReport(report);
+		} catch (IOException e) {
+			// a StringBuilder does not throw IOException
+		}
+		System.out.print(report);
+	}
+
+
+	// writing the text report of the crawl, which is printed by generateReport() and written to a file by writeReportTofile()
+	private static void writeTextReport(Appendable out) throws IOException {
+		out.append("***************************************\n");
+		out.append("********** CODE SMELL REPORT **********\n");
+		out.append("***************************************\n");
 
-		analyseObjecsList();
+		analyseObjectsIfChanged();
 
-		System.out.println("********** CLOSURE SMELL **********");
-		reportSmell(closureSmellLocation);
+		out.append("********** CLOSURE SMELL **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.CLOSURE));
 
 		
-		System.out.println("********** COUPLING JS/HTML **********");
+		out.append("********** COUPLING JS/HTML **********\n");
 		
-		System.out.println("Total number of JavaScript in HTML tags: " + jsInTagFound.size());
+		out.append("Total number of JavaScript in HTML tags: ").append(Integer.toString(crawlResult.jsInTagFound.size())).append('\n');
 		
-		for (String jTag: jsInTagFound)
-			System.out.println(jTag);
+		for (String jTag: crawlResult.jsInTagFound)
+			out.append(jTag).append('\n');
 		
-		System.out.println("Occurance of CSS in JavaScript");
-		reportSmell(CSSinJS);
+		out.append("Occurance of CSS in JavaScript\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.CSS_IN_JS));
 		
 		//System.out.println("Total number of JavaScript lines in HTML: " + inlineJavaScriptLines);
 		//for (String sn: inlineJavaScriptScopeName)
 		//	System.out.println("Scope having the inline JavaScript: " + sn);
 
 		
-		System.out.println("********** EMPTY CATCH **********");
-		reportSmell(emptyCatchFound);
+		out.append("********** EMPTY CATCH **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.EMPTY_CATCH));
 
 		// because globals are extracted at runtime, they are not available in the first execution of this part of code
-		if (globals.size() > 0){
-			System.out.println("********** EXCESSIVE GLOBAL VARIABLES **********");
-			System.out.println("Number of global variables: " + globals.size());
-			System.out.println("List of  global variables: " + globals);
+		if (crawlResult.globals.size() > 0){
+			out.append("********** EXCESSIVE GLOBAL VARIABLES **********\n");
+			out.append("Number of global variables: ").append(Integer.toString(crawlResult.globals.size())).append('\n');
+			out.append("List of  global variables: ").append(crawlResult.globals.toString()).append('\n');
 		}
 		
-		System.out.println("********** LARGE OBJECT **********");
-		reportSmell(largeObjectsLocation);		
+		out.append("********** LARGE OBJECT **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.LARGE_OBJECT));		
 
-		System.out.println("********** LAZY OBJECT **********");
-		reportSmell(lazyObjectsLocation);
+		out.append("********** LAZY OBJECT **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.LAZY_OBJECT));
 		
-		System.out.println("********** LONG MESSAGE **********");
-		reportSmell(longMessageFound);
+		out.append("********** LONG MESSAGE **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.LONG_MESSAGE_CHAIN));
 
-		System.out.println("********** LONG METHOD/FUNCTION **********");
-		reportSmell(longMethodFound);
+		out.append("********** LONG METHOD/FUNCTION **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.LONG_METHOD));
 
-		System.out.println("********** LONG PARAMETER LIST **********");
-		reportSmell(longParameterListFound);
+		out.append("********** LONG PARAMETER LIST **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.LONG_PARAMETER_LIST));
 
-		//System.out.println("********** LONG PROTOTYPE CHAIN **********");
-		//reportSmell(longPrototypeChainObjLocation);
+		//out.append("********** LONG PROTOTYPE CHAIN **********\n");
+		//appendSmells(out, crawlResult.getSmells(SmellType.LONG_PROTOTYPE_CHAIN));
 
 		
 		// More detection process for callback is to dynamically check if the type of a parameter is function
-		System.out.println("********** NESTED CALLBACK **********");
-		reportSmell(nestedCallBackFound);
+		out.append("********** NESTED CALLBACK **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.NESTED_CALLBACK));
 
-		System.out.println("********** REFUSED BEQUEST **********");
-		reportSmell(refusedBequestObjLocation);
+		out.append("********** REFUSED BEQUEST **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.REFUSED_BEQUEST));
 		
-		System.out.println("********** SWITCH STATEMENT **********");
-		reportSmell(switchFound);
+		out.append("********** SWITCH STATEMENT **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.SWITCH));
 				
 
-		System.out.println("********** UNREACHABLE CODE **********");
-		reportSmell(unReachable);
+		out.append("********** UNREACHABLE CODE **********\n");
+		appendSmells(out, crawlResult.getSmells(SmellType.UNREACHABLE_CODE));
 		
 		
 		//System.out.println("********** OBJECT LIST **********");
@@ -239,51 +493,124 @@ public class SmellDetector {
 	}
 	
 	
-	public static String reportSmell(HashSet<SmellLocation> smell){
-		String report = "";
-		System.out.println("Number of occurance: " + smell.size());
-		report += "Number of occurance: " + smell.size() + "\n";
+	public static synchronized String reportSmell(Set<SmellLocation> smell){
+		StringBuilder report = new StringBuilder();
+		try {
+			appendSmells(report, smell);
+		} catch (IOException e) {
+			// a StringBuilder does not throw IOException
+		}
+		System.out.print(report);
+		return report.toString();
+	}
+
+
+	// appending the text report of a smell, without building intermediate strings per location
+	private static void appendSmells(Appendable out, Set<SmellLocation> smell) throws IOException {
+		out.append("Number of occurance: ").append(Integer.toString(smell.size())).append('\n');
 		for (SmellLocation l:smell){
-			System.out.println("Item: " + l.getSmellyItemName() + " in JS file: " + l.getJsFile() +" at line number: " + l.getLineNumber());
-			report += "Item: " + l.getSmellyItemName() + " in JS file: " + l.getJsFile() +" at line number: " + l.getLineNumber() + "\n";
+			out.append("Item: ").append(l.getSmellyItemName()).append(" in JS file: ").append(l.getJsFile())
+					.append(" at line number: ").append(Integer.toString(l.getLineNumber())).append('\n');
 		}
-		return report;
-	}	
+	}
+
+
+	/**
+	 * Streaming every smell location of the crawl to the report file (see setReportFile()) and the
+	 * registered report sinks.
+	 */
+	public static synchronized void writeReport(){
+		File file = reportFile;
+		if (file != null){
+			try {
+				// the file always holds the latest full report, however often the report is written
+				SmellReportSink sink = createReportSink(file, false);
+				try {
+					writeReport(sink);
+				} finally {
+					sink.close();
+				}
+			} catch (IOException ioe) {
+				LOGGER.warn("Could not write the smell report to " + file + ": " + ioe.getMessage());
+			}
+		}
+		for (SmellReportSink sink : reportSinks){
+			try {
+				writeReport(sink);
+			} catch (IOException ioe) {
+				LOGGER.warn("Could not write the smell report: " + ioe.getMessage());
+			}
+		}
+	}
+
+
+	/**
+	 * Streaming every smell location of the crawl to a sink, one record per location. Nothing is
+	 * written to the console.
+	 * 
+	 * @param sink
+	 *            The sink to write to, it is flushed but not closed.
+	 * @throws IOException
+	 *             if the sink could not write a record.
+	 */
+	public static synchronized void writeReport(SmellReportSink sink) throws IOException {
+		analyseObjectsIfChanged();
+		for (SmellType type : SmellType.values()){
+			for (SmellLocation l : crawlResult.getSmells(type))
+				sink.write(type, l);
+		}
+		sink.flush();
+	}
 	
 
 	
 	
 	
+	// computing the object smells for a report, only if the objects changed since they were last computed
+	private static void analyseObjectsIfChanged() {
+		if (!objectSmellsUpToDate)
+			analyseObjecsList();
+	}
+
+
+	/**
+	 * Print a line of the smell analysis to the console if the console report is on, see
+	 * {@link #setConsoleReport(boolean)}.
+	 */
+	public static void echo(String line) {
+		if (consoleReport)
+			System.out.println(line);
+	}
+
+
 	/**
 	 * Analysing jsObjects list to calculate used/unused inherited properties 
 	 * The method is static to be used by printObject()
 	 */
-	public static void analyseObjecsList() {
+	public static synchronized void analyseObjecsList() {
 		
 		String prototype = "";
 		
 		//	usedInheritedPropetries = intersection of ownPropetries and inheritedPropetries 
 		//	usedInheritedPropetries = inheritedPropetries - ownPropetries
-		ArrayList<String> ownPropetries = new ArrayList<String>();	// only own
-		ArrayList<String> usedPropetries = new ArrayList<String>();	// both own and inherited
-		ArrayList<String> inheritedPropetries = new ArrayList<String>();		// ownPropetries of the prototype (if has one)
-		ArrayList<String> usedInheritedPropetries = new ArrayList<String>();	// Inherited properties used or overwritten
-		ArrayList<String> notUsedInheritedPropetries = new ArrayList<String>();	// Inherited properties not used or overwritten
-
-		ArrayList<String> delegatedPropetries = new ArrayList<String>();		// Delegated properties which are defined some where in the prototype chain 
-		ArrayList<JavaScriptObjectInfo> prototypeChain = new ArrayList<JavaScriptObjectInfo>();				// Storing the prototype chain of an object 
+		Set<String> ownPropetries;	// only own
+		Set<String> inheritedPropetries;		// ownPropetries of the prototype (if has one)
+		LinkedHashSet<String> usedInheritedPropetries;	// Inherited properties used or overwritten
+		LinkedHashSet<String> notUsedInheritedPropetries;	// Inherited properties not used or overwritten
 
 		SmellLocation sl;
+
+		// the object smells are computed again from the objects every time
+		crawlResult.clearObjectSmells();
+		objectSmellsUpToDate = true;
+
+		// prototype chains are resolved once for all objects of this report
+		PrototypeGraph prototypeGraph = new PrototypeGraph(crawlResult.jsObjects);
 		
-		for (JavaScriptObjectInfo jso : jsObjects){
+		for (JavaScriptObjectInfo jso : crawlResult.jsObjects.values()){
 			
 			//System.out.println(jso);
 			
-			usedInheritedPropetries.clear();
-			notUsedInheritedPropetries.clear();
-			delegatedPropetries.clear();
-			prototypeChain.clear();
-			
 			ownPropetries = jso.getOwnPropetries();
 			//System.out.println("ownPropetries of :" + jso.getName() + " is: " + ownPropetries);
 			
@@ -295,10 +622,12 @@ public class SmellDetector {
 				 * Detecting lazy object
 				 */
 
-				if (ownPropetries.size() < MIN_OBJECT_PROPERTIES){
+				if (ownPropetries.size() < MIN_OBJECT_PROPERTIES && crawlResult.dynamicLargeObjects.contains(jso.getName())){
+					echo("object " + jso.getName() + " detected as dynamic large, removed from lazy list");
+				}else if (ownPropetries.size() < MIN_OBJECT_PROPERTIES){
 					sl = new SmellLocation(jso.getName(),jso.getJsFileName(),jso.getLineNumber());
-					System.out.println(jso.getName() + " is a lazy object because ownPropetries is " + ownPropetries);
-					lazyObjectsLocation.add(sl);
+					echo(jso.getName() + " is a lazy object because ownPropetries is " + ownPropetries);
+					crawlResult.addSmell(SmellType.LAZY_OBJECT, sl);
 				}
 
 
@@ -307,132 +636,75 @@ public class SmellDetector {
 				 */
 				int LOC = 0; // object methods lines of code
 				// counting total LOC of its methods
-				for (int i=0; i<ownPropetries.size(); i++){
-					for (int j=0; j<jsFunctions.size(); j++){
-						if (ownPropetries.get(i).equals(jsFunctions.get(j).getName()))
-							LOC += jsFunctions.get(j).getLinesOfCode();
-					}
+				for (String own : ownPropetries){
+					FunctionInfo method = crawlResult.getFunction(own);
+					if (method != null)
+						LOC += method.getLinesOfCode();
 				}
-				if (LOC >= MAX_OBJECT_LOC || ownPropetries.size() > MAX_OBJECT_PROPERTIES){
+				if ((LOC >= MAX_OBJECT_LOC || ownPropetries.size() > MAX_OBJECT_PROPERTIES) && crawlResult.dynamicLazyObjects.contains(jso.getName())){
+					echo("object " + jso.getName() + " detected as dynamic lazy, removed from large list");
+				}else if (LOC >= MAX_OBJECT_LOC || ownPropetries.size() > MAX_OBJECT_PROPERTIES){
 					sl = new SmellLocation(jso.getName(),jso.getJsFileName(),jso.getLineNumber());
 
-					System.out.println(jso.getName() + " is a large object because LOC is " + LOC + " and ownPropetries.size() is " + ownPropetries.size());
-					largeObjectsLocation.add(sl);
+					echo(jso.getName() + " is a large object because LOC is " + LOC + " and ownPropetries.size() is " + ownPropetries.size());
+					crawlResult.addSmell(SmellType.LARGE_OBJECT, sl);
 				}
 
 			}
 
 
 			
-			usedPropetries = jso.getUsedPropetries();
-			//System.out.println("usedPropetries of :" + jso.getName() + " is: " + usedPropetries);
-			
-			//detecting not-own but used properties
-			for (String used: usedPropetries)
-				if (!ownPropetries.contains(used)){
-					//System.out.println("property: " + used + " was delegated to prototype chain");
-					delegatedPropetries.add(used);
-				}
-
 			prototype = jso.getPrototype();
 			if (prototype!="" && !prototype.equals("Function") && !prototype.equals("Date")){
 
-				System.out.println("prototype of :" + jso.getName() + " is: " + prototype);
+				echo("prototype of :" + jso.getName() + " is: " + prototype);
 
-				for (JavaScriptObjectInfo proto : jsObjects)
-					if (proto.getName().equals(prototype)){
-						
-						prototypeChain.add(proto);
-						
-						inheritedPropetries = proto.getOwnPropetries();
+				JavaScriptObjectInfo proto = prototypeGraph.getPrototype(jso.getName());
+				if (proto != null){
+					
+					inheritedPropetries = proto.getOwnPropetries();
 
-						jso.setInheritedPropetries(inheritedPropetries);
-						System.out.println("inheritedPropetries of :" + jso.getName() + " is: " + jso.getInheritedPropetries());
-
-
-						for (String prop : inheritedPropetries){
-							if (ownPropetries.contains(prop))	// finding used/overrode inherited properties
-								usedInheritedPropetries.add(prop);
-							else
-								notUsedInheritedPropetries.add(prop);
-						}
+					jso.setInheritedPropetries(new LinkedHashSet<String>(inheritedPropetries));
+					echo("inheritedPropetries of :" + jso.getName() + " is: " + jso.getInheritedPropetries());
 
-						jso.setUsedInheritedPropetries(usedInheritedPropetries);
-						jso.setNotUsedInheritedPropetries(notUsedInheritedPropetries);
+					// finding used/overrode inherited properties
+					usedInheritedPropetries = new LinkedHashSet<String>(inheritedPropetries);
+					usedInheritedPropetries.retainAll(ownPropetries);
+					notUsedInheritedPropetries = new LinkedHashSet<String>(inheritedPropetries);
+					notUsedInheritedPropetries.removeAll(usedInheritedPropetries);
 
-						System.out.println("usedInheritedPropetries of :" + jso.getName() + " is: " + jso.getUsedInheritedPropetries());
+					jso.setUsedInheritedPropetries(usedInheritedPropetries);
+					jso.setNotUsedInheritedPropetries(notUsedInheritedPropetries);
 
-						//System.out.println("notUsedInheritedPropetries of :" + jso.getName() + " is: " + jso.getNotUsedInheritedPropetries());
+					echo("usedInheritedPropetries of :" + jso.getName() + " is: " + jso.getUsedInheritedPropetries());
 
+					//System.out.println("notUsedInheritedPropetries of :" + jso.getName() + " is: " + jso.getNotUsedInheritedPropetries());
 
 
-						/**
-						 * Detecting refused bequest
-						 */
-						if (!objectsToIgnore.contains(jso.getName())){
-							if ( (double)usedInheritedPropetries.size() / (double)inheritedPropetries.size() < BASE_CLASS_USAGE_RATIO){
-								System.out.println("Detected refused bequest for object: " + jso.getName());
-								sl = new SmellLocation(jso.getName(),jso.getJsFileName(),jso.getLineNumber());
-								refusedBequestObjLocation.add(sl);
-							}
-						}
-
-
-						// detecting prototype-chain
-						boolean prototypeFound = false;
-						prototype = proto.getPrototype();
-						int chainLength = 0;
-						
-						if (!prototype.equals(proto.getName())){
-
-							//System.out.println("prototype of :" + proto.getName() + " is: " + prototype);
-
-							while(prototype != ""){
-								prototypeFound = false;
-								for (JavaScriptObjectInfo o : jsObjects)
-									if (o.getName().equals(prototype)){
-										prototype = o.getPrototype();
-										prototypeChain.add(o);
-										prototypeFound = true;
-										break;
-									}
-								if (prototypeFound == false)
-									break;
-								chainLength++;
-								if (chainLength == 5){
-									break;
-								}
-							}
 
-						}
-
-						//System.out.println("prototypeChain is: " + prototypeChain);
-						if (prototypeChain.size() >= MAX_LENGTH_OF_PROTOTYPE){
-							//System.out.println("Long prototype chain found for object: " + jso.getName() + " defined at line: " + jso.getLineNumber());
+					/**
+					 * Detecting refused bequest
+					 */
+					if (!objectsToIgnore.contains(jso.getName())){
+						if ( (double)usedInheritedPropetries.size() / (double)inheritedPropetries.size() < BASE_CLASS_USAGE_RATIO){
+							echo("Detected refused bequest for object: " + jso.getName());
 							sl = new SmellLocation(jso.getName(),jso.getJsFileName(),jso.getLineNumber());
-							longPrototypeChainObjLocation.add(sl);
-						}
-						
-
-						// detecting delegation in prototype-chain
-						for (String delProp : delegatedPropetries){
-							boolean found = false;
-							for (JavaScriptObjectInfo o : prototypeChain){
-								inheritedPropetries = o.getOwnPropetries();
-								if (inheritedPropetries.contains(delProp)){	// finding used/overrode inherited properties
-									//System.out.println("delegated property: " + delProp + " was found in object: " + o.getName());
-									found = true;
-									break;
-								}
-							}
-							//if (found == false)
-								//System.out.println("Could not find delegated property: " + delProp + " in prototypeChain");
+							crawlResult.addSmell(SmellType.REFUSED_BEQUEST, sl);
 						}
+					}
 
-						break;
 
+					/**
+					 * Detecting long prototype-chain, the chain starts at the prototype of the object
+					 */
+					if (prototypeGraph.getChainLength(proto.getName()) >= MAX_LENGTH_OF_PROTOTYPE){
+						//System.out.println("Long prototype chain found for object: " + jso.getName() + " defined at line: " + jso.getLineNumber());
+						sl = new SmellLocation(jso.getName(),jso.getJsFileName(),jso.getLineNumber());
+						crawlResult.addSmell(SmellType.LONG_PROTOTYPE_CHAIN, sl);
 					}
 
+				}
+
 			}
 
 			//System.out.println();
@@ -447,15 +719,14 @@ public class SmellDetector {
 	 */
 	public void analyseAstNode() {
 	
-		String ASTNodeName = ASTNode.shortName();
 		int type = ASTNode.getType();
 		int ASTDepth = ASTNode.depth();
 		
-		//System.out.println("node.shortName() : " + ASTNodeName);
+		//System.out.println("node.shortName() : " + ASTNode.shortName());
 		//System.out.println("node.depth() : " + ASTDepth);
 		//System.out.println("node.getLineno() : " + (ASTNode.getLineno()+1));
 		
-		checkLongMessageChain();   // also used to detect message chain used in object recognition
+		checkLongMessageChain(type);   // also used to detect message chain used in object recognition
 
 		// check if we are in the up the currentObjectNodeDepth
 		if (ASTDepth < currentObjectNodeDepth && lastMessageChain==1 && ignoreDepthChange==false){  // dealing with a.b.c = ... patterns  
@@ -474,17 +745,9 @@ public class SmellDetector {
 		}
 
 		
-		if (ASTNodeName.equals("Name")){
+		if (type == Token.NAME){
 			//System.out.println(ASTNode.debugPrint());
-
-			for (Symbol s: ASTNode.getAstRoot().getSymbols()){
-				int sType = s.getDeclType();
-			    if (sType == Token.LP || sType == Token.VAR || sType == Token.LET || sType == Token.CONST){
-			    	//System.out.println("global detected: " + s.getName());
-			    	globals.add(s.getName());
-			    }
-			}
-			//System.out.println();
+			harvestGlobals(ASTNode.getAstRoot());
 		}
 //		else if (ASTNodeName.equals("FunctionNode")){
 //			FunctionNode f = (FunctionNode) ASTNode;
@@ -506,41 +769,70 @@ public class SmellDetector {
 			if (ASTNode.depth() == levelToCheckForReachability){
 				//System.out.println("Unreachable code at line: " + (ASTNode.getLineno()+1));
 				SmellLocation sl = new SmellLocation("Unreachable code",jsFileName,(ASTNode.getLineno()+1));
-				unReachable.add(sl);
+				result.addSmell(SmellType.UNREACHABLE_CODE, sl);
 			}
 			checkForUnreachable = false;
 		}
 		
 		
 		
-		if (ASTNodeName.equals("Name"))
-			analyseNameNode();
-		else if (ASTNodeName.equals("VariableDeclaration"))
-			analyseVariable();
-		else if (ASTNodeName.equals("ObjectLiteral"))
-			analyseObjectLiteralNode();
-		else if (ASTNodeName.equals("ObjectProperty"))
-			analyseObjectPropertyNode();
-		else if (ASTNodeName.equals("FunctionNode"))
-			analyseFunctionNode();
-		else if (ASTNodeName.equals("PropertyGet"))  // this is for inner function defined properties such as this.name = ...
-			analysePropertyGetNode();
-		else if (ASTNodeName.equals("NewExpression"))
-			analyseNewExpressionNode();
-		else if (ASTNodeName.equals("FunctionCall"))
-			analyseFunctionCallNode();
-		else if (ASTNodeName.equals("Assignment"))
-			analyseAssignmentNode();
-		else if (ASTNodeName.equals("CatchClause"))
-			analyseCatchClause();
-		else if (ASTNodeName.equals("ReturnStatement") || ASTNodeName.equals("BreakStatement") || ASTNodeName.equals("ContinueStatement") || ASTNodeName.equals("ThrowStatement"))
-			analyseRechability();
-		else if (ASTNodeName.equals("Block"))
-			analyseBlock();		
-		else if (type == Token.SWITCH)
-			isSwitchSmell();
-		else if (type == Token.THIS)
-			thisInClosure();
+		// dispatching on the node type, so only the rules for this kind of node run. Some types are
+		// shared by different kinds of nodes (e.g. Scope is also a BLOCK and VariableInitializer is
+		// also a VAR), those are told apart by their class
+		switch (type) {
+			case Token.NAME:
+				analyseNameNode();
+				break;
+			case Token.VAR:
+			case Token.LET:
+			case Token.CONST:
+				if (ASTNode instanceof VariableDeclaration)
+					analyseVariable();
+				break;
+			case Token.OBJECTLIT:
+				analyseObjectLiteralNode();
+				break;
+			case Token.COLON:
+			case Token.GET:
+			case Token.SET:
+				if (ASTNode instanceof ObjectProperty)
+					analyseObjectPropertyNode();
+				break;
+			case Token.FUNCTION:
+				analyseFunctionNode();
+				break;
+			case Token.GETPROP:  // this is for inner function defined properties such as this.name = ...
+				analysePropertyGetNode();
+				break;
+			case Token.NEW:
+				analyseNewExpressionNode();
+				break;
+			case Token.CALL:
+				analyseFunctionCallNode();
+				break;
+			case Token.CATCH:
+				analyseCatchClause();
+				break;
+			case Token.RETURN:
+			case Token.BREAK:
+			case Token.CONTINUE:
+			case Token.THROW:
+				analyseRechability();
+				break;
+			case Token.BLOCK:
+				if (ASTNode instanceof Block)
+					analyseBlock();
+				break;
+			case Token.SWITCH:
+				isSwitchSmell();
+				break;
+			case Token.THIS:
+				thisInClosure();
+				break;
+			default:
+				if (type >= Token.FIRST_ASSIGN && type <= Token.LAST_ASSIGN)
+					analyseAssignmentNode();
+		}
 		
 
 		//System.out.println();
@@ -552,11 +844,30 @@ public class SmellDetector {
 	}
 
 
+	/**
+	 * Adding the global symbols of the AstRoot to globals. The symbols of a root are the same for all
+	 * its names, so they are only added once per root.
+	 */
+	private void harvestGlobals(AstRoot root) {
+		if (root == null || root == globalsHarvestedRoot)
+			return;
+		globalsHarvestedRoot = root;
+
+		for (Symbol s: root.getSymbols()){
+			int sType = s.getDeclType();
+		    if (sType == Token.LP || sType == Token.VAR || sType == Token.LET || sType == Token.CONST){
+		    	//System.out.println("global detected: " + s.getName());
+		    	result.globals.add(s.getName());
+		    }
+		}
+	}
+
+
 	// checking if "this" is used in closure
 	private void thisInClosure() {
 		if (scopeChainLength > 1){
 			SmellLocation sl = new SmellLocation("this in closure", jsFileName, ASTNode.getLineno()+1);
-			closureSmellLocation.add(sl);
+			result.addSmell(SmellType.CLOSURE, sl);
 		}
 
 	}
@@ -587,7 +898,7 @@ public class SmellDetector {
 			if (ASTNode.hasChildren()==false){
 				//System.out.println("Empty catch clause at line: " + (ASTNode.getLineno()+1));
 				SmellLocation sl = new SmellLocation("empty catch",jsFileName,(ASTNode.getLineno()+1));
-				emptyCatchFound.add(sl);
+				result.addSmell(SmellType.EMPTY_CATCH, sl);
 			}
 			CatchClause = false;
 		}
@@ -614,8 +925,8 @@ public class SmellDetector {
 		candidateObjectName = ((Name)ASTNode).getIdentifier();
 		
 		// this is to keep track during dynamic execution
-		if (!candidateJSObjectList.contains(candidateObjectName)){
-			candidateJSObjectList.add(candidateObjectName);
+		if (!result.candidateJSObjectList.contains(candidateObjectName)){
+			result.candidateJSObjectList.add(candidateObjectName);
 			//System.out.println("objName: " + objName);
 		}
 		
@@ -637,7 +948,7 @@ public class SmellDetector {
 				/**
 				 * check if it is "Object.prototype" and not "x.prototype" = y
 				 */
-				//System.out.println("should find a prototype for current object: " + jsObjects.get(currentObjectIndex).getName());
+				//System.out.println("should find a prototype for current object: " + currentObject.getName());
 
 				nextNameIsProperty = false;
 
@@ -647,22 +958,22 @@ public class SmellDetector {
 				if (((Name)ASTNode).getIdentifier().equals("style")){
 					SmellLocation sl = new SmellLocation("CSS in JavaScript", jsFileName,(ASTNode.getLineno()+1));
 					//System.out.println("CSSinJS : at line " + (ASTNode.getLineno()+1) + " of file: " + jsFileName);
-					CSSinJS.add(sl);
-				}else if (jsObjects.size()>0){
+					result.addSmell(SmellType.CSS_IN_JS, sl);
+				}else if (getCurrentObject() != null){
 
 					/*
     			  Adding a property to the current object
 					 */
-					if (!((Name)ASTNode).getIdentifier().equals(jsObjects.get(currentObjectIndex).getName())){ // ignoring to add the function name as a property of the object
-						//System.out.println("property found: " + ((Name)ASTNode).getIdentifier() + " for object: " + jsObjects.get(currentObjectIndex).getName());
+					if (!((Name)ASTNode).getIdentifier().equals(getCurrentObject().getName())){ // ignoring to add the function name as a property of the object
+						//System.out.println("property found: " + ((Name)ASTNode).getIdentifier() + " for object: " + currentObject.getName());
 
 						if (LHS==true){
 							//System.out.println("THIS IS AN OWN PROPERTY!");
-							jsObjects.get(currentObjectIndex).addOwnProperty(((Name)ASTNode).getIdentifier());
-							jsObjects.get(currentObjectIndex).addUsedProperty(((Name)ASTNode).getIdentifier());
+							getCurrentObject().addOwnProperty(((Name)ASTNode).getIdentifier());
+							getCurrentObject().addUsedProperty(((Name)ASTNode).getIdentifier());
 						}else{
 							//System.out.println("THIS IS A USED PROPERTY!");
-							jsObjects.get(currentObjectIndex).addUsedProperty(((Name)ASTNode).getIdentifier());
+							getCurrentObject().addUsedProperty(((Name)ASTNode).getIdentifier());
 						}
 
 
@@ -679,9 +990,8 @@ public class SmellDetector {
 							candidateObjectName = ((Name)ASTNode).getIdentifier();
 							JavaScriptObjectInfo newJSObj = new JavaScriptObjectInfo(candidateObjectName, ASTNode.depth(), ASTNode.getLineno()+1);
 							newJSObj.setJsFileName(jsFileName);
-							if (!objectExists(newJSObj)){		// add the new object if does not already exist
-								jsObjects.add(newJSObj);
-								currentObjectIndex = jsObjects.size()-1;	// current object is now at the end of jsObjects list
+							if (addObject(newJSObj)){		// add the new object if does not already exist
+								currentObject = newJSObj;
 								currentObjectNodeDepth = ASTNode.depth();	// setting current object node depth
 								//System.out.println("A new object is used: " + candidateObjectName);
 							}
@@ -708,8 +1018,9 @@ public class SmellDetector {
 		  check if next name is a prototype object name, default is false
 		 */
 		if (nextNameIsPrototype == true){
-			//System.out.println("prototype found: " + ((Name)ASTNode).getIdentifier() + " for object: " + jsObjects.get(currentObjectIndex).getName());
-			jsObjects.get(currentObjectIndex).setPrototype(((Name)ASTNode).getIdentifier());
+			//System.out.println("prototype found: " + ((Name)ASTNode).getIdentifier() + " for object: " + currentObject.getName());
+			if (getCurrentObject() != null)
+				getCurrentObject().setPrototype(((Name)ASTNode).getIdentifier());
 			nextNameIsPrototype = false;
 		}
 		
@@ -719,9 +1030,8 @@ public class SmellDetector {
 			candidateObjectName = ((Name)ASTNode).getIdentifier();
 			JavaScriptObjectInfo newJSObj = new JavaScriptObjectInfo(candidateObjectName, ASTNode.depth(), ASTNode.getLineno()+1);
 			newJSObj.setJsFileName(jsFileName);
-			if (!objectExists(newJSObj)){		// add the new object if does not already exist
-				jsObjects.add(newJSObj);
-				currentObjectIndex = jsObjects.size()-1;	// current object is now at the end of jsObjects list
+			if (addObject(newJSObj)){		// add the new object if does not already exist
+				currentObject = newJSObj;
 				currentObjectNodeDepth = ASTNode.depth();	// setting current object node depth
 				//System.out.println("A new object is used: " + candidateObjectName);
 			}else{
@@ -754,22 +1064,21 @@ public class SmellDetector {
 		//System.out.println("Found object literal: " + candidateObjectName);
 		List<ObjectProperty> prop =  o.getElements();
 		for (ObjectProperty op : prop){
-			if (op.getLeft().shortName().equals("Name")){
+			if (op.getLeft() instanceof Name){
 				//System.out.println("op.getString(): " + ((Name)(op.getLeft())).getIdentifier()  );
 				newJSObj.addOwnProperty(((Name)(op.getLeft())).getIdentifier());
 			}
-			else if (op.getLeft().shortName().equals("StringLiteral")){
+			else if (op.getLeft() instanceof StringLiteral){
 				//System.out.println("op.getString(): " + ((StringLiteral)(op.getLeft())).getValue()  );
 				newJSObj.addOwnProperty(((StringLiteral)(op.getLeft())).getValue());
 			}
 			else{
-				System.out.println("UNKNOWN!!");
+				echo("UNKNOWN!!");
 			}
 		}
 				
-		if (!objectExists(newJSObj))
-			jsObjects.add(newJSObj);
-		currentObjectIndex = jsObjects.size()-1;	// current object is now at the end of jsObjects list
+		addObject(newJSObj);
+		currentObject = crawlResult.getLastObject();	// the last found object, also if the literal is assigned to an already found object
 		currentObjectNodeDepth = ASTNode.depth();	// setting current object node depth
 		//System.out.println("Object literal: " + candidateObjectName);
 	}
@@ -806,14 +1115,7 @@ public class SmellDetector {
 		// adding the function to the list of jsFunctions if does not already exist
 		FunctionInfo newFunction = new FunctionInfo(fName, numOfParam, fLength, lineNumber);
 		
-		boolean functionExist = false;
-		for (FunctionInfo jsfn : jsFunctions)
-			if (jsfn.getName().equals(newFunction.getName())){
-				functionExist = true;
-				break;
-			}
-		if (functionExist == false)
-			jsFunctions.add(newFunction);
+		result.addFunction(newFunction);
 				
 		
 		/**
@@ -821,7 +1123,7 @@ public class SmellDetector {
 		 */
 		if (fLength > MAX_METHID_LENGTH){
 			SmellLocation sl = new SmellLocation(fName, jsFileName,lineNumber);
-			longMethodFound.add(sl);
+			result.addSmell(SmellType.LONG_METHOD, sl);
 			//System.out.println("This function is long. Starts from line " + (func.getLineno()+1) + " to line " + (func.getEndLineno()+1));
 		}
 		
@@ -832,12 +1134,12 @@ public class SmellDetector {
 		if (numOfParam >= MAX_NUMBER_OF_PARAMETERS){
 			//System.out.println("function " + func.getName() + " has " + func.getParams().size() + " parameters in line " + (func.getLineno()+1));
 			SmellLocation sl = new SmellLocation(fName, jsFileName,lineNumber);
-			longParameterListFound.add(sl);
+			result.addSmell(SmellType.LONG_PARAMETER_LIST, sl);
 		}
 
 
 
-		System.out.println("lastFunctionDepth is :" + lastFunctionDepth);
+		echo("lastFunctionDepth is :" + lastFunctionDepth);
 
 		// keep track of nested function (scope chain)
 		if (fDepth > lastFunctionDepth){
@@ -845,11 +1147,11 @@ public class SmellDetector {
 			//System.out.println("scopeChainLength is :" + scopeChainLength + " at line: " + lineNumber);
 			if (scopeChainLength > MAX_LENGTH_OF_SCOPE_CHAIN){
 				SmellLocation sl = new SmellLocation("Long scope chain at function: " + fName, jsFileName,lineNumber);
-				closureSmellLocation.add(sl);
+				result.addSmell(SmellType.CLOSURE, sl);
 
 				if (callBackFound){
 					//System.out.println("Callback found in nested functions at line : " + lineNumber + " of fileName: " + fName);
-					nestedCallBackFound.add(sl);
+					result.addSmell(SmellType.NESTED_CALLBACK, sl);
 				}
 				
 			}
@@ -878,9 +1180,9 @@ public class SmellDetector {
 			for (AstNode n : param)
 				newJSObj.addOwnProperty(((Name)n).getIdentifier());
 
-			jsObjects.add(newJSObj);
+			addObject(newJSObj);
 
-			currentObjectIndex = jsObjects.size()-1;	// current object is now at the end of jsObjects list
+			currentObject = newJSObj;
 			currentObjectNodeDepth = fDepth;	// setting current object node depth
 			//System.out.println("Object candidate function name: " + candidateObjectName);
 		}
@@ -911,9 +1213,8 @@ public class SmellDetector {
 		// candidateObjectName was filled in the previous ASTNode visit
 		JavaScriptObjectInfo newJSObj = new JavaScriptObjectInfo(candidateObjectName, ASTNode.depth(), ASTNode.getLineno()+1);
 		newJSObj.setJsFileName(jsFileName);
-		if (!objectExists(newJSObj) && !candidateObjectName.equals("prototype")){
-			jsObjects.add(newJSObj);
-			currentObjectIndex = jsObjects.size()-1;	// current object is now at the end of jsObjects list
+		if (!candidateObjectName.equals("prototype") && addObject(newJSObj)){
+			currentObject = newJSObj;
 			currentObjectNodeDepth = ASTNode.depth();	// setting current object node depth
 			//System.out.println("Object created using new from function: " + candidateObjectName);
 		}else{
@@ -933,7 +1234,7 @@ public class SmellDetector {
 		// check for callback
 		boolean detected = false;
 		for (AstNode node : fcall.getArguments())
-			if (node.shortName().equals("FunctionNode")){
+			if (node instanceof FunctionNode){
 				//System.out.println("callback found at line : " + ( ASTNode.getLineno()+1));
 				callBackFound = true;
 				detected = true;
@@ -944,21 +1245,21 @@ public class SmellDetector {
 		
 		/*
 		   dealing with x = Object.create() and x = new Object();
-		 */		currentPrototype = getPrototypeOfObjectCreateStyle(fcall.debugPrint());
+		 */
+		currentPrototype = getPrototypeOfObjectCreateStyle(fcall);
 		if (currentPrototype!=""){
 			//System.out.println("Prototype is :" + currentPrototype);
 
 			JavaScriptObjectInfo newJSObj = new JavaScriptObjectInfo(currentIdentifier, ASTNode.depth(), ASTNode.getLineno()+1);
 			newJSObj.setJsFileName(jsFileName);
-			if (!objectExists(newJSObj)){		// add the new object if does not already exist
-				jsObjects.add(newJSObj);
-				currentObjectIndex = jsObjects.size()-1;	// current object is now at the end of jsObjects list
+			if (addObject(newJSObj)){		// add the new object if does not already exist
+				currentObject = newJSObj;
 				currentObjectNodeDepth = ASTNode.depth();	// setting current object node depth
 				//System.out.println("A new object is used: " + currentIdentifier);
 			}
 
-			//System.out.println("The prototype for current object: " + jsObjects.get(currentObjectIndex).getName() + " is: " + currentPrototype);
-			jsObjects.get(currentObjectIndex).setPrototype(currentPrototype);
+			//System.out.println("The prototype for current object: " + currentObject.getName() + " is: " + currentPrototype);
+			getCurrentObject().setPrototype(currentPrototype);
 
 		}
 		
@@ -968,11 +1269,9 @@ public class SmellDetector {
 	/*
 	 * Detecting long message chain
 	 */
-	private void checkLongMessageChain() {
-		
-		String ASTNodeName = ASTNode.shortName();
+	private void checkLongMessageChain(int type) {
 		
-		if (ASTNodeName.equals("PropertyGet")){
+		if (type == Token.GETPROP){
 			//System.out.println("consecutivePropertyGet : " + consecutivePropertyGet);
 			consecutivePropertyGet++;
 			lastMessageChain = consecutivePropertyGet;
@@ -981,7 +1280,7 @@ public class SmellDetector {
 			// check if long meassage chain found
 			if (consecutivePropertyGet >= MAX_LENGTH_OF_MESSAGE_CHAIN){
 				SmellLocation sl = new SmellLocation("Long chain", jsFileName,(ASTNode.getLineno()+1));
-				longMessageFound.add(sl);
+				result.addSmell(SmellType.LONG_MESSAGE_CHAIN, sl);
 				//System.out.println("Long message chain found!");
 			}
 			// if previous read was also GETPROP
@@ -994,121 +1293,91 @@ public class SmellDetector {
 
 	/**
 	 * Detecting objects which are created using Object.create() style and return their prototypes
-	 * The astDebugFormat will be parsed to get the corresponding properties
-	 * Return null if the pattern Object.create was not found
+	 * The call is matched on the AST as Object.create(x) where x is a name such as proto or Shape.prototype
+	 * Return "" if the pattern Object.create was not found
 	 */
-	private String getPrototypeOfObjectCreateStyle(String astDebugFormat) {
-		String prototype = "";
-		String tempRead = "";
-		String Name = "";
-		boolean foundObject = false;
-		boolean foundcreate = false;
-		boolean needsDot = false;	// prototype might be x.y.z as in Object.prototype
-		
-		int spaceCount = 0, newDepth = 0;
-		for (int i=0; i<astDebugFormat.length(); i++){  //finding the next node (at any level)
-			if (astDebugFormat.charAt(i) == '\t'){		// found next element at position i
-				for (int j=i+1; j<astDebugFormat.length(); j++){  //finding the level
-					if (astDebugFormat.charAt(j) == ' ')
-						spaceCount++;
-					else{
-						newDepth = spaceCount/2;
-						spaceCount = 0;
-						while (astDebugFormat.charAt(j) != ' '){ // adding node type to the result string
-							tempRead+=astDebugFormat.charAt(j);
-							j++;
-						}
-	
-						// check if first NAME is "Object" and second is "create" 
-						if (tempRead.equals("NAME")){
-							if (foundObject == true && foundcreate == true){  // any NAME found should be concatenated as the prototype of the object 
-								if (needsDot == true)	// this is not done the first time.
-									prototype += ".";	// Adds . to make prototypes such as "Object.prototype"
-								prototype += getName(astDebugFormat,j);
-								needsDot = true;
-							}
-							
-							if (foundObject == false){
-								Name = getName(astDebugFormat,j);
-								if (Name.equals("Object"))
-									foundObject = true;
-
-							}else{	// "Object" is already found. Now search for "create"
-								Name = getName(astDebugFormat,j);
-								
-								if (Name.equals("create"))
-									foundcreate = true;
-							}
-						}
-						tempRead="";
-						break;
-					}				
-				}
-			}
-		}
-		return prototype;
-	}
-	
-	
+	private String getPrototypeOfObjectCreateStyle(FunctionCall fcall) {
+		if (!(fcall.getTarget() instanceof PropertyGet) || fcall.getArguments().isEmpty())
+			return "";
 
+		PropertyGet target = (PropertyGet) fcall.getTarget();
+		if (!(target.getTarget() instanceof Name) || !((Name)target.getTarget()).getIdentifier().equals("Object")
+				|| !target.getProperty().getIdentifier().equals("create"))
+			return "";
 
+		return getQualifiedName(fcall.getArguments().get(0));
+	}
+	
 	
-	// just some parsing to get the identifier in front of the NAME
-	private String getName(String astDebugFormat, int j) {
-		String Name = "";
-		j++; while (astDebugFormat.charAt(j) != ' ') // skipping numbers
-			j++;
-		j++; while (astDebugFormat.charAt(j) != ' ') // skipping numbers
-			j++;
-		j++;
-		Name = "";
-		while (astDebugFormat.charAt(j) != '\n'){ // adding node type to the result string
-			Name+=astDebugFormat.charAt(j);
-			j++;
-		}		
-		return Name;
+	// the dotted name of a Name or a chain of PropertyGet such as Object.prototype, "" for any other node
+	private String getQualifiedName(AstNode node) {
+		if (node instanceof Name)
+			return ((Name)node).getIdentifier();
+
+		if (node instanceof PropertyGet){
+			String target = getQualifiedName(((PropertyGet)node).getTarget());
+			if (!target.equals(""))
+				return target + "." + ((PropertyGet)node).getProperty().getIdentifier();
+		}
+		return "";
 	}
 
 
-	public static void addDynamicObject(JavaScriptObjectInfo dynamicObject){
+	public static synchronized void addDynamicObject(JavaScriptObjectInfo dynamicObject){
+		objectSmellsUpToDate = false;
 
 		// check if the dynamic object was already detected (by static analysis)
-		for (JavaScriptObjectInfo o: jsObjects)
-			if (o.getName().equals(dynamicObject.getName())){
-				//System.out.println("object " + dynamicObject.getName() + " already exist!");
-				// now try to add properties
-				for (String own: dynamicObject.getOwnPropetries())
-					o.addOwnProperty(own);
-				for (String inh: dynamicObject.getInheritedPropetries())
-					o.addOwnProperty(inh);
-				return;
-			}
+		JavaScriptObjectInfo o = crawlResult.getObject(dynamicObject.getName());
+		if (o != null){
+			//System.out.println("object " + dynamicObject.getName() + " already exist!");
+			// now try to add properties
+			for (String own: dynamicObject.getOwnPropetries())
+				o.addOwnProperty(own);
+			for (String inh: dynamicObject.getInheritedPropetries())
+				o.addOwnProperty(inh);
+			return;
+		}
 
-		dynamicObject.setJsFileName(jsFileName);
+		dynamicObject.setJsFileName(lastJSFileName);
 		// add the new dynamic object to the list
-		if (!objectExists(dynamicObject))
-			jsObjects.add(dynamicObject);
+		crawlResult.addObject(dynamicObject);
 	}
 
-	public static boolean objectExists(JavaScriptObjectInfo jsObject){
-		for (JavaScriptObjectInfo o: jsObjects)
-			if (o.getName().equals(jsObject.getName())){
-				//System.out.println("object " + jsObject.getName() + " already exist!");
-				return true;
-			}
-		return false;
+	public static synchronized boolean objectExists(JavaScriptObjectInfo jsObject){
+		return crawlResult.getObject(jsObject.getName()) != null;
+	}
+
+
+	/**
+	 * Adding an object found in the analysed file to the objects of the crawl.
+	 * 
+	 * @return true if the object was added, false if an object with the same name already exists
+	 */
+	private boolean addObject(JavaScriptObjectInfo jsObject) {
+		fileObjects.add(jsObject.getName());
+		return crawlResult.addObject(jsObject);
+	}
+
+
+	/**
+	 * @return the object properties and prototypes are added to, which is the first object of the
+	 *         crawl until another object is found, or null if there are no objects
+	 */
+	private JavaScriptObjectInfo getCurrentObject() {
+		JavaScriptObjectInfo o = currentObject != null ? currentObject : crawlResult.getFirstObject();
+		if (o != null)
+			fileObjects.add(o.getName());
+		return o;
 	}
 
 
 	private void setCurrentObject(JavaScriptObjectInfo jsObject) {
 		// find the object in the jsObjects list
-		for (int i=0; i< jsObjects.size(); i++){
-			if (jsObjects.get(i).getName().equals(jsObject.getName())){
-				currentObjectNodeDepth = jsObjects.get(i).getASTDepth();	// current object is now at the end of jsObjects list
-				currentObjectIndex = i;
-				//System.out.println("Current object set to :" + jsObjects.get(i).getName() + " at depth: " + currentObjectNodeDepth);
-				return;
-			}
+		JavaScriptObjectInfo o = crawlResult.getObject(jsObject.getName());
+		if (o != null){
+			currentObjectNodeDepth = o.getASTDepth();
+			currentObject = o;
+			//System.out.println("Current object set to :" + o.getName() + " at depth: " + currentObjectNodeDepth);
 		}
 	}
 
@@ -1121,7 +1390,7 @@ public class SmellDetector {
 
 		if (s.getCases().size() > MAX_NUMBER_OF_SWITCHCASE){
 			SmellLocation sl = new SmellLocation("switch", jsFileName,(ASTNode.getLineno()+1));
-			switchFound.add(sl);
+			result.addSmell(SmellType.SWITCH, sl);
 		}
 	}
 
@@ -1134,18 +1403,48 @@ public class SmellDetector {
 	 * TODO: distinguish between server-side generated codes and original inline codes
 	 * 
 	 */
-	public static void analyseCoupling(String scopeName, String code, HashSet<String> jsInTag) {
+	public static synchronized void analyseCoupling(String scopeName, String code, Set<String> jsInTag) {
 		// counting lines of inline javascript 
 		String[] lines = code.split("\r\n|\r|\n");
 		//System.out.println("There are " + lines.length + " lines of JavaScript code inside your HTML");
 		//System.out.println("code is: " + code);
 		
-		for (String jTag: jsInTag)
-			jsInTagFound.add(jTag);
+		crawlResult.jsInTagFound.addAll(jsInTag);
+		crawlResult.addInlineJavaScript(scopeName, lines.length);
+	}
+
+
+	/**
+	 * Finding JavaScript in the event handler attributes of html tags, such as onclick
+	 * 
+	 * @param dom
+	 *            The html page.
+	 * @param jsInTag
+	 *            The set to add a description of every tag with JavaScript to.
+	 */
+	public static void findJsInTags(Document dom, Set<String> jsInTag) {
 		
-		if (!inlineJavaScriptScopeName.contains(scopeName)){
-			inlineJavaScriptScopeName.add(scopeName);
-			inlineJavaScriptLines += lines.length;
+		// checking a, div, span, img, input, td
+		String[] tags = { "a", "div", "span", "img", "input", "td", "button"};  
+		String[] attributes = { "onclick",	"ondblclick", "onmouseover", "onmouseup", "onmousedown", "onmouseout", "onkeydown", "onkeypress" };  
+
+		for (String tagName : tags){
+			NodeList eventable = dom.getElementsByTagName(tagName);
+			Node foundAttribute = null;
+			for (int i = 0; i < attributes.length; i++) {
+				for (int j = 0; j < eventable.getLength(); j++) {
+					foundAttribute = eventable.item(j).getAttributes().getNamedItem(attributes[i]);
+					if ((foundAttribute != null && foundAttribute.getTextContent() != null)){
+						StringBuilder tag = new StringBuilder(eventable.item(j).getNodeName()).append(' ');
+						Node c = eventable.item(j).getAttributes().getNamedItem("class");
+						if (c!=null)
+							tag.append(c.toString()).append(' ');
+						tag.append(foundAttribute.toString());
+						//System.out.println("tag: " + tag);
+						jsInTag.add(tag.toString());
+					}
+				}				
+			}
 		}
 	}
 
@@ -1154,110 +1453,35 @@ public class SmellDetector {
 	/**
 	 * Writing final smell report to file
 	 */
-	public static void writeReportTofile(){
-		FileWriter fstream;
-		BufferedWriter out;
-
+	public static synchronized void writeReportTofile(){
 		try {
-			fstream = new FileWriter("SmellReport.txt", true);
-			out = new BufferedWriter(fstream);
-			
-			out.write("***************************************\n********** CODE SMELL REPORT **********\n***************************************\n");
-
-			analyseObjecsList();
-
-			out.write("********** CLOSURE SMELL **********\n");
-			out.write(reportSmell(closureSmellLocation));
-
-
-			out.write("********** COUPLING JS/HTML **********\n");
-
-			out.write("Total number of JavaScript in HTML tags: " + jsInTagFound.size()  + "\n");
-
-			for (String jTag: jsInTagFound)
-				out.write(jTag);
-
-			out.write("\nOccurance of CSS in JavaScript\n");
-			out.write(reportSmell(CSSinJS));
-
-			out.write("********** EMPTY CATCH **********\n");
-			out.write(reportSmell(emptyCatchFound));
-
-			if (globals.size() > 0){
-				out.write("********** EXCESSIVE GLOBAL VARIABLES **********\n");
-				out.write("Number of global variables: " + globals.size() + "\n");
-				out.write("List of  global variables: " + globals + "\n");
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(TEXT_REPORT_FILE, true), "UTF-8"));
+			try {
+				writeTextReport(out);
+			} finally {
+				out.close();
 			}
-
-			out.write("********** LARGE OBJECT **********\n");
-			out.write(reportSmell(largeObjectsLocation));		
-
-			out.write("********** LAZY OBJECT **********\n");
-			out.write(reportSmell(lazyObjectsLocation));
-
-			out.write("********** LONG MESSAGE **********\n");
-			out.write(reportSmell(longMessageFound));
-
-			out.write("********** LONG METHOD/FUNCTION **********\n");
-			out.write(reportSmell(longMethodFound));
-
-			out.write("********** LONG PARAMETER LIST **********\n");
-			out.write(reportSmell(longParameterListFound));
-
-			out.write("********** NESTED CALLBACK **********\n");
-			out.write(reportSmell(nestedCallBackFound));
-
-			out.write("********** REFUSED BEQUEST **********\n");
-			out.write(reportSmell(refusedBequestObjLocation));
-
-			out.write("********** SWITCH STATEMENT **********\n");
-			out.write(reportSmell(switchFound));
-
-			out.write("********** UNREACHABLE CODE **********\n");
-			out.write(reportSmell(unReachable));
-
-			out.close();
 		}
 		catch (IOException ioe) {
-			System.out.println("Could not write the instrumented file into disk!");
+			LOGGER.warn("Could not write the smell report to " + TEXT_REPORT_FILE + ": " + ioe.getMessage());
 		}
 
 	}
 
 
 
-	// filtering large/lazy objects based on dynamically inferred object list
-	public static void filterObjects(HashSet<JavaScriptObjectInfo> largeObjects,
+	// filtering large/lazy objects based on dynamically inferred object list, applied when the object smells are computed in analyseObjecsList()
+	public static synchronized void filterObjects(HashSet<JavaScriptObjectInfo> largeObjects,
 			HashSet<JavaScriptObjectInfo> lazyObjects) {
 
-		ArrayList<SmellLocation> itemsToRemove = new ArrayList<SmellLocation>();		
-		
+		objectSmellsUpToDate = false;
+
 		for (JavaScriptObjectInfo largeObj:largeObjects)
-			for (SmellLocation l:lazyObjectsLocation)
-				if (l.getSmellyItemName().equals(largeObj.getName()))
-					itemsToRemove.add(l);
-	
-		for (SmellLocation removeSmell :itemsToRemove){
-			System.out.println("object " + removeSmell.getSmellyItemName() + " detected as dynamic large, removed from lazy list");
-			lazyObjectsLocation.remove(removeSmell);
-		}
-		
-		
-		itemsToRemove.clear();
-		for (JavaScriptObjectInfo lazyObj:lazyObjects)
-			for (SmellLocation l:largeObjectsLocation)
-				if (l.getSmellyItemName().equals(lazyObj.getName()))
-					itemsToRemove.add(l);
-	
-		for (SmellLocation removeSmell :itemsToRemove){
-			System.out.println("object " + removeSmell.getSmellyItemName() + " detected as dynamic lazy, removed from large list");
-			largeObjectsLocation.remove(removeSmell);
-		}
+			crawlResult.dynamicLargeObjects.add(largeObj.getName());
 
+		for (JavaScriptObjectInfo lazyObj:lazyObjects)
+			crawlResult.dynamicLazyObjects.add(lazyObj.getName());
 	}
 
 
 }
-
-
-
@@ -0,0 +1,20 @@
+package codesmells;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A SmellListener is told about the smells of every analysed file that were not found before in
+ * the current crawl, so smells can be followed while crawling without generating the full report.
+ * Listeners are called by the thread that analysed the file and have to be thread-safe.
+ */
+public interface SmellListener {
+
+	/**
+	 * @param jsFileName
+	 *            Name of the analysed file.
+	 * @param newSmells
+	 *            The new smell locations, only for smell types that have new locations.
+	 */
+	void smellsFound(String jsFileName, Map<SmellType, Set<SmellLocation>> newSmells);
+}
@@ -1,11 +1,16 @@
 package codesmells;
 
+import java.io.Serializable;
+
 /**
  * SmellLocation is used to keep the location of a code smell in a JavaScript file
  * 
  * @author Amin Milani Fard
  */
-public class SmellLocation{
+public class SmellLocation implements Serializable{
+
+	private static final long serialVersionUID = 1L;
+
 	String smellyItemName;
 	String jsFile;
 	int lineNumber;
@@ -54,7 +59,8 @@ public class SmellLocation{
 
     @Override
     public int hashCode() {
-        return 1;
+        // consistent with equals(), so smells spread over the buckets of a HashSet
+        return 31 * ((jsFile == null) ? 0 : jsFile.hashCode()) + lineNumber;
     }
     	
 }
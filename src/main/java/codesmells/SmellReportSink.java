@@ -0,0 +1,30 @@
+package codesmells;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A SmellReportSink receives the smells of a report one location at a time, so a report can be
+ * streamed to a file in a machine-readable format without building it in memory first. See
+ * {@link SmellDetector#writeReport(SmellReportSink)}.
+ */
+public interface SmellReportSink extends Closeable {
+
+	/**
+	 * @param type
+	 *            The smell.
+	 * @param location
+	 *            Where the smell was found.
+	 * @throws IOException
+	 *             if the record could not be written.
+	 */
+	void write(SmellType type, SmellLocation location) throws IOException;
+
+	/**
+	 * Writing the buffered records.
+	 * 
+	 * @throws IOException
+	 *             if the records could not be written.
+	 */
+	void flush() throws IOException;
+}
@@ -0,0 +1,248 @@
+package codesmells;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SmellResult keeps the code smells, objects and functions found by analysing JavaScript. Every
+ * file is analysed into its own result, which keeps a copy of the objects the file found or
+ * changed, and results are combined with {@link #merge(SmellResult)}. Merging is associative, so
+ * results can be combined in any grouping, e.g. per thread first and then for the whole crawl.
+ * Results are serializable to be kept in a {@link SmellResultCache}.
+ */
+public class SmellResult implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String jsFileName;
+
+	// objects and functions by name, in the order they were found
+	final LinkedHashMap<String, JavaScriptObjectInfo> jsObjects =
+	        new LinkedHashMap<String, JavaScriptObjectInfo>();
+
+	// the object added last, which an object literal of an already found object is assigned to
+	private JavaScriptObjectInfo lastObject = null;
+
+	final LinkedHashMap<String, FunctionInfo> jsFunctions = new LinkedHashMap<String, FunctionInfo>();
+
+	private final EnumMap<SmellType, HashSet<SmellLocation>> smells =
+	        new EnumMap<SmellType, HashSet<SmellLocation>>(SmellType.class);
+
+	final HashSet<String> globals = new HashSet<String>();	// keeping global variables
+
+	// names of candidate javascript objects, in the order they were found
+	final LinkedHashSet<String> candidateJSObjectList = new LinkedHashSet<String>();
+
+	final HashSet<String> jsInTagFound = new HashSet<String>();	// keeping occurrences of unique js in html tags
+
+	// lines of inline JavaScript per scope name (js file name) where inline JavaScript is detected
+	final HashMap<String, Integer> inlineJavaScriptLines = new HashMap<String, Integer>();
+
+	// objects that were found to be large or lazy at runtime
+	final HashSet<String> dynamicLargeObjects = new HashSet<String>();
+	final HashSet<String> dynamicLazyObjects = new HashSet<String>();
+
+	// keys of the scripts that are already analysed
+	final HashSet<String> analysedScripts = new HashSet<String>();
+
+	// number of times an object or function was looked up or added by name, see getLookups()
+	private transient long lookups = 0;
+
+	/**
+	 * @param jsFileName
+	 *            Name of the analysed JavaScript file, or null for a result that combines files.
+	 */
+	public SmellResult(String jsFileName) {
+		this.jsFileName = jsFileName;
+		for (SmellType type : SmellType.values()) {
+			smells.put(type, new HashSet<SmellLocation>());
+		}
+	}
+
+	public String getJsFileName() {
+		return jsFileName;
+	}
+
+	public void addSmell(SmellType type, SmellLocation location) {
+		smells.get(type).add(location);
+	}
+
+	/**
+	 * @return the locations of the given smell
+	 */
+	public Set<SmellLocation> getSmells(SmellType type) {
+		return Collections.unmodifiableSet(smells.get(type));
+	}
+
+	public Set<String> getGlobals() {
+		return Collections.unmodifiableSet(globals);
+	}
+
+	public Collection<JavaScriptObjectInfo> getObjects() {
+		return Collections.unmodifiableCollection(jsObjects.values());
+	}
+
+	public Set<String> getJsInTags() {
+		return Collections.unmodifiableSet(jsInTagFound);
+	}
+
+	/**
+	 * @return the total number of lines of inline JavaScript
+	 */
+	public int getInlineJavaScriptLines() {
+		int lines = 0;
+		for (int l : inlineJavaScriptLines.values())
+			lines += l;
+		return lines;
+	}
+
+	/**
+	 * @param other
+	 *            Another result.
+	 * @return the smell locations of the other result that are not in this result, only for smell
+	 *         types that have such locations.
+	 */
+	Map<SmellType, Set<SmellLocation>> getNewSmells(SmellResult other) {
+		EnumMap<SmellType, Set<SmellLocation>> newSmells =
+		        new EnumMap<SmellType, Set<SmellLocation>>(SmellType.class);
+		for (SmellType type : SmellType.values()) {
+			for (SmellLocation location : other.smells.get(type)) {
+				if (!smells.get(type).contains(location)) {
+					if (!newSmells.containsKey(type))
+						newSmells.put(type, new HashSet<SmellLocation>());
+					newSmells.get(type).add(location);
+				}
+			}
+		}
+		return newSmells;
+	}
+
+	/**
+	 * Counting the lines of JavaScript inside an html page once per scope.
+	 */
+	void addInlineJavaScript(String scopeName, int lines) {
+		if (!inlineJavaScriptLines.containsKey(scopeName))
+			inlineJavaScriptLines.put(scopeName, lines);
+	}
+
+	void clearObjectSmells() {
+		for (SmellType type : SmellType.values())
+			if (type.isObjectSmell())
+				smells.get(type).clear();
+	}
+
+	/**
+	 * @return the number of times an object or function was looked up or added by name, which
+	 *         grows linearly with the size of the analysed code
+	 */
+	long getLookups() {
+		return lookups;
+	}
+
+	JavaScriptObjectInfo getObject(String name) {
+		lookups++;
+		return jsObjects.get(name);
+	}
+
+	/**
+	 * @return the object that was added first, or null if there are no objects
+	 */
+	JavaScriptObjectInfo getFirstObject() {
+		return jsObjects.isEmpty() ? null : jsObjects.values().iterator().next();
+	}
+
+	/**
+	 * @return the object that was added last, or null if there are no objects
+	 */
+	JavaScriptObjectInfo getLastObject() {
+		return lastObject;
+	}
+
+	/**
+	 * @return true if the object was added, false if an object with the same name already exists
+	 */
+	boolean addObject(JavaScriptObjectInfo o) {
+		lookups++;
+		if (jsObjects.containsKey(o.getName()))
+			return false;
+		jsObjects.put(o.getName(), o);
+		lastObject = o;
+		return true;
+	}
+
+	FunctionInfo getFunction(String name) {
+		lookups++;
+		return jsFunctions.get(name);
+	}
+
+	/**
+	 * @return true if the function was added, false if a function with the same name already exists
+	 */
+	boolean addFunction(FunctionInfo f) {
+		lookups++;
+		if (jsFunctions.containsKey(f.getName()))
+			return false;
+		jsFunctions.put(f.getName(), f);
+		return true;
+	}
+
+	/**
+	 * Adding a copy of an object, or its properties if an object with the same name already exists.
+	 * The object is copied since the object smells are computed on the objects of this result.
+	 */
+	void mergeObject(JavaScriptObjectInfo o) {
+		JavaScriptObjectInfo existing = getObject(o.getName());
+		if (existing == null) {
+			addObject(new JavaScriptObjectInfo(o));
+			return;
+		}
+		// the object was also found in another file
+		for (String own : o.getOwnPropetries())
+			existing.addOwnProperty(own);
+		for (String used : o.getUsedPropetries())
+			existing.addUsedProperty(used);
+		if (existing.getPrototype().equals(""))
+			existing.setPrototype(o.getPrototype());
+	}
+
+	/**
+	 * Adding the findings of another result to this result. Objects and functions with the same
+	 * name are combined, the first one found keeps its location and prototype. The objects and
+	 * functions of the other result are copied, so changing this result does not change it.
+	 *
+	 * @param other
+	 *            The result to add.
+	 * @return this result
+	 */
+	public SmellResult merge(SmellResult other) {
+		for (JavaScriptObjectInfo o : other.jsObjects.values())
+			mergeObject(o);
+
+		for (FunctionInfo f : other.jsFunctions.values())
+			addFunction(new FunctionInfo(f.getName(), f.getNumberOfParameters(), f.getLinesOfCode(),
+			        f.getLineNumber()));
+
+		for (SmellType type : SmellType.values())
+			smells.get(type).addAll(other.smells.get(type));
+
+		globals.addAll(other.globals);
+		candidateJSObjectList.addAll(other.candidateJSObjectList);
+		jsInTagFound.addAll(other.jsInTagFound);
+		for (Map.Entry<String, Integer> inline : other.inlineJavaScriptLines.entrySet())
+			addInlineJavaScript(inline.getKey(), inline.getValue());
+		dynamicLargeObjects.addAll(other.dynamicLargeObjects);
+		dynamicLazyObjects.addAll(other.dynamicLazyObjects);
+		analysedScripts.addAll(other.analysedScripts);
+
+		return this;
+	}
+
+}
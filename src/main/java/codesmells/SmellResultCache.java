@@ -0,0 +1,116 @@
+package codesmells;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.apache.log4j.Logger;
+
+import com.crawljax.plugins.aji.InstrumentationCache;
+
+/**
+ * On-disk cache of the static smell analysis of JavaScript files. Entries are keyed by a hash of
+ * the analyzer version, the file and scope names and the script body, so scripts that did not
+ * change since the last crawl are not parsed and analysed again. The cached results keep the
+ * objects and functions of a file, so the smells that depend on several files (e.g. refused
+ * bequest) are computed again from the cached facts when the results are merged. The objects of a
+ * cached file are the ones it found when it was analysed, they are not looked up again in the
+ * files of the current crawl.
+ */
+public class SmellResultCache {
+
+	private static final Logger LOGGER = Logger.getLogger(SmellResultCache.class.getName());
+
+	private static final String FILE_EXTENSION = ".smells";
+
+	private final File cacheDirectory;
+
+	/**
+	 * @param cacheDirectory
+	 *            The directory to keep the analysed files in.
+	 */
+	public SmellResultCache(File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+		if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+			LOGGER.warn("Could not create smell cache directory " + cacheDirectory);
+		}
+	}
+
+	/**
+	 * Analyse a JavaScript file, or read its findings from the cache if the same code was analysed
+	 * before by the same version of the analyzer.
+	 * 
+	 * @param jsName
+	 *            Name of the file used in the report.
+	 * @param code
+	 *            The JavaScript code.
+	 * @param scopeName
+	 *            Name of the scope (the URL mostly) for the parser.
+	 * @return the findings of the file
+	 */
+	public SmellResult analyseScript(String jsName, String code, String scopeName) {
+		File file = new File(cacheDirectory, key(jsName, code, scopeName) + FILE_EXTENSION);
+		SmellResult result = read(file);
+		if (result == null) {
+			result = SmellDetector.analyseScript(jsName, code, scopeName);
+			// written before the result is merged, since merging shares its objects with the crawl
+			write(file, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the cache key of a JavaScript file.
+	 */
+	static String key(String jsName, String code, String scopeName) {
+		return InstrumentationCache.hash(SmellDetector.ANALYZER_VERSION + '\0' + jsName + '\0'
+		        + scopeName + '\0' + code);
+	}
+
+	private SmellResult read(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			ObjectInputStream in =
+			        new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return (SmellResult) in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Could not read cached smells " + file + ": " + e.getMessage());
+		} catch (ClassNotFoundException e) {
+			LOGGER.warn("Could not read cached smells " + file + ": " + e.getMessage());
+		} catch (ClassCastException e) {
+			LOGGER.warn("Could not read cached smells " + file + ": " + e.getMessage());
+		}
+		return null;
+	}
+
+	private void write(File file, SmellResult result) {
+		// written to a temporary file first, so a concurrent reader never sees a partial entry
+		File tmp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			ObjectOutputStream out =
+			        new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeObject(result);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Could not write smell cache entry " + file + ": " + e.getMessage());
+			tmp.delete();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package codesmells;
+
+/**
+ * The code smells JSNose reports on, with the title used in the smell report.
+ */
+public enum SmellType {
+
+	CLOSURE("CLOSURE SMELL"),
+	CSS_IN_JS("CSS IN JAVASCRIPT"),
+	EMPTY_CATCH("EMPTY CATCH"),
+	LARGE_OBJECT("LARGE OBJECT"),
+	LAZY_OBJECT("LAZY OBJECT"),
+	LONG_MESSAGE_CHAIN("LONG MESSAGE"),
+	LONG_METHOD("LONG METHOD/FUNCTION"),
+	LONG_PARAMETER_LIST("LONG PARAMETER LIST"),
+	LONG_PROTOTYPE_CHAIN("LONG PROTOTYPE CHAIN"),
+	NESTED_CALLBACK("NESTED CALLBACK"),
+	REFUSED_BEQUEST("REFUSED BEQUEST"),
+	SWITCH("SWITCH STATEMENT"),
+	UNREACHABLE_CODE("UNREACHABLE CODE");
+
+	private final String title;
+
+	private SmellType(String title) {
+		this.title = title;
+	}
+
+	/**
+	 * @return the title of this smell in the report
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * @return true if this smell is found by analysing the objects of all files together, rather
+	 *         than by analysing each file on its own
+	 */
+	public boolean isObjectSmell() {
+		return this == LARGE_OBJECT || this == LAZY_OBJECT || this == LONG_PROTOTYPE_CHAIN
+		        || this == REFUSED_BEQUEST;
+	}
+}
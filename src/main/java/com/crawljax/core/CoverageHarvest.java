@@ -0,0 +1,109 @@
+package com.crawljax.core;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.crawljax.browser.EmbeddedBrowser;
+import com.crawljax.plugins.aji.executiontracer.AstInstrumenter;
+
+/**
+ * Collects the execution counters of the instrumented JavaScript (the &lt;file&gt;_exec_counter
+ * arrays added by AstInstrumenter, typed or plain) from the browser. One script reads the counters of all files,
+ * returns only the counters that changed since the last harvest and sets them back to 0, so the
+ * amount of data sent by the browser depends on the newly executed code instead of the size of the
+ * code. The script returns a JSON string with, for every file, the length of its counter array
+ * followed by index/count pairs:
+ *
+ * <pre>
+ * {"app_js":[120, 4, 1, 7, 2], ...}
+ * </pre>
+ */
+final class CoverageHarvest {
+
+	private static final Logger LOGGER = Logger.getLogger(CoverageHarvest.class.getName());
+
+	private static final String SCRIPT = ""
+	        + "var names = %s; "
+	        + "var registry = window." + AstInstrumenter.COUNTER_REGISTRY + " || {}; "
+	        + "var harvest = []; "
+	        + "for (var n = 0; n < names.length; n++) {"
+	        + "var counter = registry[names[n]] || window[names[n] + '_exec_counter']; "
+	        + "if (!counter) continue; "
+	        // a typed array is copied and cleared at once, a plain array is cleared while it is read
+	        + "var typed = !!counter.subarray; "
+	        + "var counts = counter; "
+	        + "if (typed) {"
+	        + "counts = new counter.constructor(counter); "
+	        + "if (counter.fill) counter.fill(0); else counter.set(new counter.constructor(counter.length)); "
+	        + "} "
+	        + "var changed = [counts.length]; "
+	        + "for (var i = 0; i < counts.length; i++) {"
+	        + "if (counts[i] > 0) {"
+	        + "changed.push(i, counts[i]); "
+	        + "if (!typed) counter[i] = 0; "
+	        + "} "
+	        + "} "
+	        + "harvest.push('\"' + names[n] + '\":[' + changed.join(',') + ']'); "
+	        + "} "
+	        + "return '{' + harvest.join(',') + '}';";
+
+	private CoverageHarvest() {
+
+	}
+
+	/**
+	 * @param modifiedJS
+	 *            Names of the instrumented files, see JSModifyProxyPlugin.getModifiedJSList().
+	 * @return the script that reads and resets the counters in the browser.
+	 */
+	static String getScript(Collection<String> modifiedJS) {
+		return String.format(SCRIPT, new JSONArray(modifiedJS).toString());
+	}
+
+	/**
+	 * Add the execution counts since the last harvest in the browser to the counts of the
+	 * controller.
+	 *
+	 * @param browser
+	 *            The browser.
+	 * @param modifiedJS
+	 *            Names of the instrumented files.
+	 * @param controller
+	 *            The controller that keeps the counts.
+	 */
+	static void harvest(EmbeddedBrowser browser, Collection<String> modifiedJS,
+	        CrawljaxController controller) {
+		if (modifiedJS.isEmpty()) {
+			return;
+		}
+		try {
+			Object result = browser.executeJavaScript(getScript(modifiedJS));
+			if (result == null) {
+				return;
+			}
+			JSONObject harvest = new JSONObject(result.toString());
+			Iterator<?> files = harvest.keys();
+			while (files.hasNext()) {
+				String file = files.next().toString();
+				JSONArray changed = harvest.getJSONArray(file);
+				int pairs = (changed.length() - 1) / 2;
+				int[] indices = new int[pairs];
+				int[] counts = new int[pairs];
+				for (int i = 0; i < pairs; i++) {
+					indices[i] = changed.getInt(1 + 2 * i);
+					counts[i] = changed.getInt(2 + 2 * i);
+				}
+				controller.addCounts(file, changed.getInt(0), indices, counts);
+			}
+		} catch (JSONException e) {
+			LOGGER.info("Could not read the execution counters: " + e.getMessage());
+		} catch (Exception e) {
+			LOGGER.info("Could not execute script");
+		}
+	}
+}
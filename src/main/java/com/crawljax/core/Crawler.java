@@ -3,13 +3,23 @@ package com.crawljax.core;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import codesmells.JavaScriptObjectInfo;
+import codesmells.RuntimeSnapshot;
+import codesmells.SmellAnalysisQueue;
 import codesmells.SmellDetector;
 
 import com.crawljax.browser.EmbeddedBrowser;
@@ -44,6 +54,12 @@ public class Crawler implements Runnable {
 	private static HashSet<JavaScriptObjectInfo> largeObjects = new HashSet<JavaScriptObjectInfo>();	// keeping dynamic large objects	
 	private static HashSet<JavaScriptObjectInfo> lazyObjects = new HashSet<JavaScriptObjectInfo>();		// keeping dynamic large objects
 
+	// Amin: globals and objects of the last state analysed by this crawler, see dynamicSmellAnalysis()
+	private RuntimeSnapshot lastRuntimeSnapshot = null;
+
+	// Amin: objects the runtime agent reported before the static analysis of their scripts was done
+	private final Map<String, JavaScriptObjectInfo> lateRuntimeObjects = new HashMap<String, JavaScriptObjectInfo>();
+
 
 	/**
 	 * Added by Amin
@@ -353,24 +369,16 @@ public class Crawler implements Runnable {
 
 
 			if (getCoverage){
-				//Amin: calculate code coverage
-				for (String modifiedJS : JSModifyProxyPlugin.getModifiedJSList()){
-					//System.out.println("MODIFIED CODES ARE: " + modifiedJS);
-					try{
-						Object counter =  this.browser.executeJavaScript("return " + modifiedJS + "_exec_counter;");
-						this.controller.setCountList(modifiedJS, counter);
-					}catch (Exception e) {
-						LOGGER.info("Could not execute script");
-					}
-
-
-				}
+				//Amin: calculate code coverage, only the counters that changed since the last harvest are read
+				CoverageHarvest.harvest(this.browser, JSModifyProxyPlugin.getModifiedJSList(), this.controller);
 
 
-				double cov = this.controller.getCoverage(false);
+				this.controller.getCoverage(false);
 
+				// lines covered for the first time are kept for the state reached by this event
+				BitSet newlyCoveredLines = this.controller.takeNewlyCoveredLines();
 				if (controller.isDiverseCrawling())
-					controller.getSession().getStateFlowGraph().setLatestCoverage(cov);
+					controller.getSession().getStateFlowGraph().setLatestCoverage(newlyCoveredLines, this.controller.getTotalLines());
 			}
 
 
@@ -412,6 +420,9 @@ public class Crawler implements Runnable {
 								.getSession(), controller.getSession().getCurrentCrawlPath(), this
 								.getStateMachine());
 
+						// Amin: JSNose dynamic analysis of the new state
+						dynamicSmellAnalysis(this.getStateMachine().getCurrentState());
+
 						return ClickResult.newState;
 					} else {
 						// Dom changed; Clone
@@ -536,9 +547,6 @@ public class Crawler implements Runnable {
 			return false;
 		}
 
-		// Amin: JSNose dynamic analysis
-		dynamicSmellAnalysis();
-		
 		// Store the currentState to be able to 'back-track' later.
 		StateVertix orrigionalState = this.getStateMachine().getCurrentState();
 
@@ -679,11 +687,17 @@ public class Crawler implements Runnable {
 		//for (JavaScriptObjectInfo large: largeObjects)
 		//	System.out.println(large.getName());
 
+		// wait for the scripts that are still being analysed in the background
+		SmellAnalysisQueue.drain();
+		addLateRuntimeObjects();
+
 		SmellDetector.filterObjects(largeObjects, lazyObjects);
 
-		// generate the last report
-		SmellDetector.generateReport(true);
+		// generate the last report, to the console only if SmellDetector.setConsoleReport(true) was called
+		if (SmellDetector.isConsoleReport())
+			SmellDetector.generateReport(true);
 		SmellDetector.writeReportTofile();
+		SmellDetector.writeReport();
 
 
 		controller.getBrowserPool().freeBrowser(this.getBrowser());
@@ -725,6 +739,9 @@ public class Crawler implements Runnable {
 				}
 			}
 
+			// Amin: JSNose dynamic analysis of the state this crawler starts in, if it is not analysed yet
+			dynamicSmellAnalysis(this.getStateMachine().getCurrentState());
+
 			/**
 			 * Hand over the main crawling
 			 */
@@ -864,9 +881,6 @@ public class Crawler implements Runnable {
 				return false;
 			}
 			
-			// Amin: JSNod dynamic analysis
-			dynamicSmellAnalysis();
-
 			// Store the currentState to be able to 'back-track' later.
 			System.out.println("orrigionalState is " + orrigionalState.getName());
 
@@ -1013,163 +1027,139 @@ public class Crawler implements Runnable {
 	
 	
 	/**
-	 * Dynamic extraction of javaScript globals, objects and properties in browser 
+	 * Dynamic extraction of javaScript globals, objects and properties in browser. Everything is
+	 * extracted by one {@link DynamicSmellProbe} script, so the browser is called only once, or
+	 * drained from the runtime agent if the page runs it. The
+	 * result is kept with the state as a {@link RuntimeSnapshot}, and only the globals and objects
+	 * that are new or changed since the last state analysed by this crawler are analysed. Only the
+	 * scripts of the current page are waited for, objects of scripts that are still being analysed
+	 * are probed in a later state or, if the agent reported them, added by shutdown().
+	 * 
+	 * @param state
+	 *            The current state, nothing is done if it was analysed before.
 	 */
-	private void dynamicSmellAnalysis() {
+	private void dynamicSmellAnalysis(StateVertix state) {
+		if (state == null || state.getRuntimeSnapshot() != null)
+			return;
+
+		RuntimeSnapshot snapshot = new RuntimeSnapshot();
 		try{
-			Object globals =  this.browser.executeJavaScript("" +
-					"var ownPropertiesArray = []; " +
-					"for (var property in window){" +
-					"if (window.hasOwnProperty(property)){" +
-					"ownPropertiesArray.push(property); " +
-					"}" +
-					"} " +
-					" return ownPropertiesArray;");
-			ArrayList globalVars = (ArrayList) globals;
-			HashSet<String> globalsVarList = new HashSet<String>();	// keeping global variables
-			Object acceptable = null;
-			for (int i=0;i<globalVars.size();i++){
-				// disregarding window and document objects and propertiees
-				if (!globalVars.get(i).equals("window") && !globalVars.get(i).equals("document")  
-						&& !globalVars.get(i).equals("top")  && !globalVars.get(i).equals("navigator")
-						&& !globalVars.get(i).equals("location")  && !globalVars.get(i).equals("InstallTrigger")
-						&& !globalVars.get(i).equals("self")  && !globalVars.get(i).equals("parent")
-						&& !globalVars.get(i).equals("history")  && !globalVars.get(i).equals("screen")
-						&& !globalVars.get(i).equals("fxdriver_id")  && !globalVars.get(i).equals("__fxdriver_unwrapped")
-						// also disregard the instrumented object
-						&& !((String)globalVars.get(i)).contains("exec_counter")){
-
-					acceptable =  this.browser.executeJavaScript("if (typeof " + globalVars.get(i) + " !== 'function') return true; else return false;");
-					if (acceptable.toString().equals("true")){
-						globalsVarList.add(globalVars.get(i).toString());
-					}
-					else
-						System.out.println(globalVars.get(i).toString() + " IS NOT CONSIDERED AS GLOBAL");
+			// the objects of the scripts of this page are only known once their static analysis is done
+			SmellAnalysisQueue.awaitPage(this.browser.getCurrentUrl());
+			List<String> candidates = SmellDetector.getcandidateJSObjectList();
+			Object result = this.browser.executeJavaScript(DynamicSmellProbe.getScript(candidates));
+			if (result == null){
+				LOGGER.info("Could not execute script");
+				return;
+			}
+			JSONObject probe = new JSONObject(result.toString());
+			// the runtime agent reports the changes since it was last drained, for all global objects
+			boolean fromAgent = probe.optBoolean("agent");
+			Set<String> candidateNames = new HashSet<String>(candidates);
+
+			JSONArray globalVars = probe.getJSONArray("globals");
+			for (int i=0;i<globalVars.length();i++)
+				snapshot.addGlobal(globalVars.getString(i));
+
+			JSONArray objects = probe.getJSONArray("objects");
+			for (int i=0;i<objects.length();i++){
+				JSONObject object = objects.getJSONObject(i);
+				if (fromAgent && !candidateNames.contains(object.getString("name"))){
+					// the analysis of its script may not be done yet
+					lateRuntimeObjects.put(object.getString("name"), toObject(object.getString("name"),
+							toList(object.getJSONArray("own")), toList(object.getJSONArray("inherited"))));
+					continue;
 				}
+				lateRuntimeObjects.remove(object.getString("name"));
+				snapshot.addObject(object.getString("name"), toList(object.getJSONArray("own")),
+						toList(object.getJSONArray("inherited")));
 			}
-			System.out.println("********** RUNTIME GLOBALS DETECTION **********");
-			System.out.println("Total number of global variables: " + globalsVarList.size());
-			System.out.println("Globals are: " + globalsVarList);
-
-			// send the list to the smell detector main class
-			SmellDetector.setGlobals(globalsVarList);
 
+			if (fromAgent && lastRuntimeSnapshot != null)
+				snapshot = lastRuntimeSnapshot.update(snapshot);
+		}catch (JSONException e) {
+			LOGGER.info("Could not read the result of the dynamic smell analysis: " + e.getMessage());
+			return;
 		}catch (Exception e) {
 			LOGGER.info("Could not execute script");
+			return;
 		}
 
+		state.setRuntimeSnapshot(snapshot);
+		RuntimeSnapshot changes = snapshot.getChanges(lastRuntimeSnapshot);
+		lastRuntimeSnapshot = snapshot;
+		if (changes.isEmpty()){
+			LOGGER.info("No new globals or objects in state " + state.getName());
+			return;
+		}
 
+		HashSet<String> globalsVarList = new HashSet<String>(changes.getGlobals());	// keeping new global variables
+		SmellDetector.echo("********** RUNTIME GLOBALS DETECTION **********");
+		SmellDetector.echo("Number of new global variables: " + globalsVarList.size());
+		SmellDetector.echo("New globals are: " + globalsVarList);
 
+		// send the list to the smell detector main class
+		SmellDetector.setGlobals(globalsVarList);
 
-		ArrayList<JavaScriptObjectInfo> jsObjects = new ArrayList<JavaScriptObjectInfo>();
-		for (String candidateJSObject : SmellDetector.getcandidateJSObjectList()){
-			try{
-
-				if (!candidateJSObject.equals("window") && !candidateJSObject.equals("document")  
-						&& !candidateJSObject.equals("top")  && !candidateJSObject.equals("navigator")
-						&& !candidateJSObject.equals("location")  && !candidateJSObject.equals("InstallTrigger")
-						&& !candidateJSObject.equals("fxdriver_id")  && !candidateJSObject.equals("__fxdriver_unwrapped")
-						&& !candidateJSObject.contains("exec_counter")){
-
-
-					Object isObject =  this.browser.executeJavaScript("if (typeof " + candidateJSObject + " == \"object\") return true;");
-					Object isFunction =  this.browser.executeJavaScript("if (typeof " + candidateJSObject + " == \"function\") return true;");
-
-					//System.out.println(isObject + " "+candidateJSObject);
-					if (isObject!=null && isObject.toString().equals("true")){
-						//System.out.println(candidateJSObject + " is an object!");
-
-						JavaScriptObjectInfo newJSObj = new JavaScriptObjectInfo(candidateJSObject,0,-1);
-
-						//Adding properties and prototype to the newJSObj
-
-						Object ownPropertiesArray =  this.browser.executeJavaScript("" +
-								"var ownPropertiesArray = []; " +
-								"for (var property in " + candidateJSObject + "){" +
-								"if (" + candidateJSObject + ".hasOwnProperty(property)){" +
-								"ownPropertiesArray.push(property); " +
-								"}" +
-								"} " +
-								" return ownPropertiesArray;");
-
-						Object inheritedPropertiesArray =  this.browser.executeJavaScript("" +
-								"var inheritedPropertiesArray = []; " +
-								"for (var property in " + candidateJSObject + "){" +
-								"if (!" + candidateJSObject + ".hasOwnProperty(property)){" +
-								"inheritedPropertiesArray.push(property); " +
-								"}" +
-								"} " +
-								" return inheritedPropertiesArray;");
-
-
-						//System.out.println("ownProperties of " + candidateJSObject + " are " + ownPropertiesArray);
-						//System.out.println("inheritedProperties of " + candidateJSObject + " are " + inheritedPropertiesArray);
-
-						ArrayList ownProperties = (ArrayList) ownPropertiesArray;
-						ArrayList inheritedProperties = (ArrayList) inheritedPropertiesArray;
-
-
-						for (int i=0;i<ownProperties.size();i++){
-							//System.out.println((String)ownProperties.get(i).toString());
-							newJSObj.addOwnProperty((String)ownProperties.get(i).toString());
-						}
-
-						for (int i=0;i<inheritedProperties.size();i++){
-							//System.out.println((String)inheritedProperties.get(i).toString());
-							newJSObj.addInheritedPropetries((String)inheritedProperties.get(i).toString());
-						}
-
-
-						SmellDetector.addDynamicObject(newJSObj);
-
-
-
-
-						if (ownProperties.size() < SmellDetector.MIN_OBJECT_PROPERTIES){
-							System.out.println("********** RUNTIME LAZY DETECTION **********");
-							System.out.println("Lazy object: " + candidateJSObject + " with properties:" + ownProperties);
-							if (!lazyObjects.contains(newJSObj))		// add the new object if does not already exist
-								lazyObjects.add(newJSObj);
-
-						}
-						if (ownProperties.size() > SmellDetector.MAX_OBJECT_PROPERTIES){
-							System.out.println("********** RUNTIME LARGE DETECTION **********");
-							System.out.println("Large object: " + candidateJSObject + " with properties:" + ownProperties);
-							if (!largeObjects.contains(newJSObj))		// add the new object if does not already exist
-								largeObjects.add(newJSObj);
-						}
-
-					}
-
+		for (String candidateJSObject : changes.getObjectNames())
+			addRuntimeObject(toObject(candidateJSObject, changes.getOwnProperties(candidateJSObject),
+					changes.getInheritedProperties(candidateJSObject)));
+	}
 
+	/**
+	 * Amin
+	 * Adding an object found at runtime to the smell detector and checking if it is lazy or large.
+	 */
+	private void addRuntimeObject(JavaScriptObjectInfo newJSObj){
+		SmellDetector.addDynamicObject(newJSObj);
 
-					//Adding prototype chain to the newJSObj
-					//Object prototype =  this.browser.executeJavaScript("return Object.getPrototypeOf(" + candidateJSObject + ");");
-					//System.out.println("Object.getPrototypeOf " + candidateJSObject + " is " + prototype);
+		Set<String> ownProperties = newJSObj.getOwnPropetries();
+		if (ownProperties.size() < SmellDetector.MIN_OBJECT_PROPERTIES){
+			SmellDetector.echo("********** RUNTIME LAZY DETECTION **********");
+			SmellDetector.echo("Lazy object: " + newJSObj.getName() + " with properties:" + ownProperties);
+			if (!lazyObjects.contains(newJSObj))		// add the new object if does not already exist
+				lazyObjects.add(newJSObj);
 
-					//prototype =  this.browser.executeJavaScript("" +
-					//		" return Object.getPrototypeOf(" + candidateJSObject + ");");
-					//System.out.println("Object.getPrototypeOf " + candidateJSObject + " is " + prototype);
+		}
+		if (ownProperties.size() > SmellDetector.MAX_OBJECT_PROPERTIES){
+			SmellDetector.echo("********** RUNTIME LARGE DETECTION **********");
+			SmellDetector.echo("Large object: " + newJSObj.getName() + " with properties:" + ownProperties);
+			if (!largeObjects.contains(newJSObj))		// add the new object if does not already exist
+				largeObjects.add(newJSObj);
+		}
+	}
 
+	/**
+	 * Amin
+	 * Adding the objects the runtime agent reported before their scripts were analysed, if the
+	 * analysis found them to be objects. Called when all scripts are analysed.
+	 */
+	private void addLateRuntimeObjects(){
+		Set<String> candidateNames = new HashSet<String>(SmellDetector.getcandidateJSObjectList());
+		for (JavaScriptObjectInfo lateObject : lateRuntimeObjects.values())
+			if (candidateNames.contains(lateObject.getName()))
+				addRuntimeObject(lateObject);
+		lateRuntimeObjects.clear();
+	}
 
-					//Object prototypeChain =  this.browser.executeJavaScript("" +
-					//		"var prototypeChainArray = []; " +
-					//		"prototypeChainIterator = " + candidateJSObject + ";" +
-					//		"while (prototypeChainIterator != null) {" +
-					//		    "prototypeChainIterator = Object.getPrototypeOf(prototypeChainIterator);"+
-					//		    "prototypeChainArray.push(prototypeChainIterator);"+
-					//		"}"+
-					//		" return prototypeChainArray;");
-					//System.out.println("prototypeChain of " + candidateJSObject + " is " + prototypeChain);
+	private static JavaScriptObjectInfo toObject(String name, Collection<String> ownProperties,
+			Collection<String> inheritedProperties){
+		JavaScriptObjectInfo newJSObj = new JavaScriptObjectInfo(name,0,-1);
 
+		//Adding properties and prototype to the newJSObj
+		for (String own : ownProperties)
+			newJSObj.addOwnProperty(own);
 
-					//System.out.println();
+		for (String inherited : inheritedProperties)
+			newJSObj.addInheritedPropetries(inherited);
+		return newJSObj;
+	}
 
-				}
-			}catch (Exception e) {
-				LOGGER.info("Could not execute script");
-			}
-		}
+	private static List<String> toList(JSONArray array) throws JSONException {
+		List<String> list = new ArrayList<String>(array.length());
+		for (int i=0;i<array.length();i++)
+			list.add(array.getString(i));
+		return list;
 	}
 
 	/**
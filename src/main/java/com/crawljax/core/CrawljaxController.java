@@ -12,8 +12,14 @@ import com.crawljax.core.configuration.CrawljaxConfigurationReader;
 import com.crawljax.core.plugin.CrawljaxPluginsUtil;
 import com.crawljax.core.state.Eventable;
 import com.crawljax.core.state.StateFlowGraph;
+import com.crawljax.core.state.StateVertix;
 import com.crawljax.oraclecomparator.StateComparator;
 import com.crawljax.plugins.aji.JSModifyProxyPlugin;
+import com.crawljax.plugins.aji.JSASTModifier.Granularity;
+import com.crawljax.plugins.aji.executiontracer.CounterLocations;
+
+import codesmells.SmellAnalysisQueue;
+import codesmells.SmellDetector;
 
 import net.jcip.annotations.GuardedBy;
 
@@ -25,7 +31,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -44,39 +51,201 @@ public class CrawljaxController implements CrawlQueueManager {
 	 *  diverseCrawling: set it true if you wish to do diverse crawling. The default value is false.
 	 *  efficientCrawling: set it true if you wish to do diverse crawling. The default value is false.
 	 *  JSCountList: keeping track of executed lines of all js
+	 *  JSLineIndex: the lines of every js in one index, so covered lines of all js are kept in one BitSet
 	 *  fstream: used to write stats about coverage and crawled states, etc.
 	 */
 	private ArrayList<Crawler> waitingCrawlerList = new ArrayList<Crawler>();
 	private boolean diverseCrawling = false;
 	private boolean efficientCrawling = false;
 	private boolean randomEventExec = false;
-	private Map<String,ArrayList<Integer>> JSCountList = new Hashtable<String,ArrayList<Integer>>(); 
+	private Map<String,int[]> JSCountList = new HashMap<String,int[]>(); 
+	private Map<String,List<int[]>> JSLineIndex = new HashMap<String,List<int[]>>();	// {first line, first index} per part of a js
+	private int totalLines = 0;
+	private BitSet coveredLines = new BitSet();			// lines executed at least once
+	private BitSet newlyCoveredLines = new BitSet();	// lines executed for the first time since takeNewlyCoveredLines
 	private FileWriter fstream;
 	private BufferedWriter out;
 	private double coverage = 0.0;
 
 	
-	// Amin: keeping track of executed lines of a js	
-	public synchronized void setCountList(String modifiedJS, Object counter){
-		ArrayList<Integer> countList = new ArrayList<Integer>();
-		ArrayList c = (ArrayList) counter;
-		countList.clear(); // used as a temp list to be added to JSCountList
-
-		if (!JSCountList.containsKey(modifiedJS)){ // if not exist add new js to the JSCountList	
-			for (int i=0;i<c.size();i++)
-				countList.add(((Long)c.get(i)).intValue());
-			JSCountList.put(modifiedJS, countList);
-		}else{ // update JSCountList
-			for (int i: JSCountList.get(modifiedJS))
-				countList.add(i);
-			for (int i=0;i<c.size();i++)
-				countList.set(i,countList.get(i)+((Long)c.get(i)).intValue());
+	// Amin: adding the execution counts harvested from the browser since the last harvest, see CoverageHarvest
+	public synchronized void addCounts(String modifiedJS, int length, int[] indices, int[] counts){
+		int[] countList = JSCountList.get(modifiedJS);
+		if (countList == null || countList.length < length){ // new js, or a js with more instrumented lines
+			addLines(modifiedJS, length);
+			int[] grown = new int[length];
+			if (countList != null)
+				System.arraycopy(countList, 0, grown, 0, countList.length);
+			countList = grown;
 			JSCountList.put(modifiedJS, countList);
 		}
+
+		for (int i=0;i<indices.length;i++){
+			if (counts[i] > 0){
+				int index = getLineIndex(modifiedJS, indices[i]);
+				if (!coveredLines.get(index)){
+					coveredLines.set(index);
+					newlyCoveredLines.set(index);
+				}
+			}
+			countList[indices[i]] += counts[i];
+		}
+	}
+
+	/**
+	 * Amin: the lines of a js get indices when the js is first harvested. If the js has more
+	 * instrumented lines later on, the new lines get indices after all known lines, so indices in
+	 * BitSets that are already kept do not change.
+	 */
+	private void addLines(String modifiedJS, int length){
+		List<int[]> parts = JSLineIndex.get(modifiedJS);
+		int knownLines = 0;
+		if (parts == null){
+			parts = new ArrayList<int[]>();
+			JSLineIndex.put(modifiedJS, parts);
+		}else{
+			knownLines = JSCountList.get(modifiedJS).length;
+		}
+		parts.add(new int[]{knownLines, totalLines});
+		totalLines += length - knownLines;
+	}
+
+	/**
+	 * @return the index of a line of a js in the BitSets of covered lines
+	 */
+	public synchronized int getLineIndex(String modifiedJS, int line){
+		List<int[]> parts = JSLineIndex.get(modifiedJS);
+		for (int i=parts.size()-1;i>=0;i--){
+			if (parts.get(i)[0] <= line)
+				return parts.get(i)[1] + line - parts.get(i)[0];
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of lines of a js that are set in the given BitSet of covered lines
+	 */
+	public synchronized int getCoveredLines(String modifiedJS, BitSet lines){
+		int[] countList = JSCountList.get(modifiedJS);
+		List<int[]> parts = JSLineIndex.get(modifiedJS);
+		if (countList == null)
+			return 0;
+		int covered = 0;
+		for (int i=0;i<parts.size();i++){
+			int end = i+1 < parts.size() ? parts.get(i+1)[0] : countList.length;
+			int first = parts.get(i)[1];
+			covered += lines.get(first, first + end - parts.get(i)[0]).cardinality();
+		}
+		return covered;
+	}
+
+	/**
+	 * @return the lines executed for the first time since the last call, e.g. when a new state was
+	 *         reached
+	 */
+	public synchronized BitSet takeNewlyCoveredLines(){
+		BitSet lines = newlyCoveredLines;
+		newlyCoveredLines = new BitSet();
+		return lines;
+	}
+
+	/**
+	 * @return the number of instrumented lines of all harvested js
+	 */
+	public synchronized int getTotalLines(){
+		return totalLines;
+	}
+
+	// Amin: name of the counted code in the coverage report
+	private static String getCoverageUnit(Granularity granularity){
+		switch (granularity){
+			case FUNCTION:
+				return "functions";
+			case BASIC_BLOCK:
+				return "blocks";
+			default:
+				return "lines";
+		}
+	}
+
+	/**
+	 * Amin: the covered and uncovered counters of a js as ranges, e.g. "0-3 5 9-12", instead of the
+	 * full list of counts, and the lines where no counter is covered if the source locations of the
+	 * counters are known.
+	 */
+	private static String getCoverageRanges(String modifiedJS, int[] countList){
+		BitSet covered = new BitSet(countList.length);
+		for (int i=0;i<countList.length;i++){
+			if (countList[i] > 0)
+				covered.set(i);
+		}
+		BitSet uncovered = (BitSet) covered.clone();
+		uncovered.flip(0, countList.length);
+
+		StringBuilder ranges = new StringBuilder();
+		ranges.append(" Covered counters of ").append(modifiedJS).append(":").append(formatRanges(covered)).append("\n");
+		ranges.append(" Uncovered counters of ").append(modifiedJS).append(":").append(formatRanges(uncovered)).append("\n");
+
+		CounterLocations locations = JSModifyProxyPlugin.getCounterLocations(modifiedJS);
+		if (locations != null){
+			BitSet coveredSourceLines = new BitSet();
+			BitSet uncoveredSourceLines = new BitSet();
+			for (int i=0;i<countList.length && i<locations.size();i++){
+				if (countList[i] > 0)
+					coveredSourceLines.set(locations.getLine(i));
+				else
+					uncoveredSourceLines.set(locations.getLine(i));
+			}
+			uncoveredSourceLines.andNot(coveredSourceLines);
+			ranges.append(" Uncovered lines of ").append(modifiedJS).append(":").append(formatRanges(uncoveredSourceLines)).append("\n");
+		}
+		return ranges.toString();
+	}
+
+	/**
+	 * Amin: the states that first covered the covered counters of a js, e.g. "index 0-3 state2 5",
+	 * so the report shows which events reach which code.
+	 */
+	private String getCoveringStates(String modifiedJS, int[] countList){
+		StringBuilder states = new StringBuilder();
+		states.append(" States covering ").append(modifiedJS).append(":");
+		if (session == null)
+			return states.append("\n").toString();
+		StateFlowGraph sfg = session.getStateFlowGraph();
+		StateVertix rangeState = null;
+		int rangeStart = -1;
+		for (int i=0;i<=countList.length;i++){
+			StateVertix state = null;
+			if (i < countList.length && countList[i] > 0)
+				state = sfg.getStateCoveringLine(getLineIndex(modifiedJS, i));
+			if (state != rangeState){
+				if (rangeState != null){
+					states.append(' ').append(rangeState.getName()).append(' ').append(rangeStart);
+					if (i - 1 > rangeStart)
+						states.append('-').append(i - 1);
+				}
+				rangeState = state;
+				rangeStart = i;
+			}
+		}
+		return states.append("\n").toString();
+	}
+
+	// Amin: run-length encoding of the set bits, e.g. " 0-3 5 9-12"
+	private static String formatRanges(BitSet bits){
+		StringBuilder ranges = new StringBuilder();
+		for (int start = bits.nextSetBit(0); start >= 0; ){
+			int end = bits.nextClearBit(start);
+			ranges.append(' ').append(start);
+			if (end - 1 > start)
+				ranges.append('-').append(end - 1);
+			start = bits.nextSetBit(end);
+		}
+		return ranges.toString();
 	}
 
 	// Amin: compute code coverage
-	public double getCoverage(boolean printToFile){
+	public synchronized double getCoverage(boolean printToFile){
 
 		try {
 			if (printToFile){
@@ -84,37 +253,36 @@ public class CrawljaxController implements CrawlQueueManager {
 				this.out = new BufferedWriter(fstream);
 			}
 
-			//double coverage = 0.0;
-			int totalExecutedLines = 0, totalLines = 0;
+			// the counters are lines, basic blocks or functions depending on the instrumentation
+			String unit = getCoverageUnit(JSModifyProxyPlugin.getGranularity());
 
 			for (String modifiedJS : JSModifyProxyPlugin.getModifiedJSList()){
 				if (JSCountList.containsKey(modifiedJS)){
-					totalLines += JSCountList.get(modifiedJS).size();
-					int executedLines = 0;
-
-					LOGGER.info(" List of " + modifiedJS + " is: " + JSCountList.get(modifiedJS));
-					if (printToFile)
-						out.write(" List of " + modifiedJS + " is: " + JSCountList.get(modifiedJS) + "\n");
-
-					for (int i: JSCountList.get(modifiedJS))
-						if (i>0){
-							totalExecutedLines++;
-							executedLines++;
-						}
-
-					LOGGER.info("List of " + modifiedJS + " # lines ececuted: " + executedLines + " # tolal lines: " + JSCountList.get(modifiedJS).size() + " - code coverage: " + (double)executedLines/(double)JSCountList.get(modifiedJS).size()*100+"%\n");
+					int lines = JSCountList.get(modifiedJS).length;
+					int executedLines = getCoveredLines(modifiedJS, coveredLines);
+
+					// the ranges are only written for the final report
+					if (printToFile){
+						String ranges = getCoverageRanges(modifiedJS, JSCountList.get(modifiedJS))
+								+ getCoveringStates(modifiedJS, JSCountList.get(modifiedJS));
+						LOGGER.info(ranges);
+						out.write(ranges);
+					}
+
+					LOGGER.info("List of " + modifiedJS + " # " + unit + " ececuted: " + executedLines + " # tolal " + unit + ": " + lines + " - code coverage: " + (double)executedLines/(double)lines*100+"%\n");
 					if (printToFile)
-						out.write("List of " + modifiedJS + " # lines ececuted: " + executedLines + " # tolal lines: " + JSCountList.get(modifiedJS).size() + " - code coverage: " + (double)executedLines/(double)JSCountList.get(modifiedJS).size()*100+"%\n");
+						out.write("List of " + modifiedJS + " # " + unit + " ececuted: " + executedLines + " # tolal " + unit + ": " + lines + " - code coverage: " + (double)executedLines/(double)lines*100+"%\n");
 				}
 			}
 
 			long timeCrawlCalc = System.currentTimeMillis() - startCrawl;
 
-			coverage = (double)totalExecutedLines/(double)totalLines;
+			// lines of all js are in one BitSet, so the covered lines are counted a word at a time
+			coverage = (double)coveredLines.cardinality()/(double)totalLines;
 
-			LOGGER.info("Time: " + formatRunningTime(timeCrawlCalc) + " - code coverage: " + coverage*100+"%");
+			LOGGER.info("Time: " + formatRunningTime(timeCrawlCalc) + " - code coverage (" + unit + "): " + coverage*100+"%");
 			if (printToFile){
-				out.write("Time: " + formatRunningTime(timeCrawlCalc) + " - code coverage: " + coverage*100+"%" + "\n");
+				out.write("Time: " + formatRunningTime(timeCrawlCalc) + " - code coverage (" + unit + "): " + coverage*100+"%" + "\n");
 				out.close();
 			}
 
@@ -301,6 +469,10 @@ public class CrawljaxController implements CrawlQueueManager {
 		//	workQueue.execute(diverseCrawlingManager);
 		//}
 		
+		//Amin: forget the smells of a previous crawl in this JVM
+		SmellAnalysisQueue.drain();
+		SmellDetector.reset();
+
 		startCrawl = System.currentTimeMillis();
 
 		LOGGER.info(
@@ -471,6 +643,8 @@ public class CrawljaxController implements CrawlQueueManager {
 		        + " the crawling process was requested to terminate @ " + Thread.currentThread());
 		browserPool.shutdown();
 		workQueue.shutdownNow(isAbort);
+		// Amin: let the background smell analysis finish before the final report
+		SmellAnalysisQueue.drain();
 		this.shutdown(System.currentTimeMillis() - startCrawl);
 	}
 
@@ -0,0 +1,126 @@
+package com.crawljax.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.JSONArray;
+
+/**
+ * Builds the script that extracts the globals, objects and properties needed for the dynamic smell
+ * analysis in the browser. All candidate objects are examined in the page by one script, so the
+ * analysis needs a single call to the browser instead of several calls per candidate. The script
+ * returns a JSON string:
+ *
+ * <pre>
+ * {"globals":["g1", ...], "objects":[{"name":"o1", "own":["p1", ...], "inherited":["p2", ...]}, ...]}
+ * </pre>
+ *
+ * Only candidates with typeof "object" are listed in objects. The JSON is built by the script
+ * itself, since libraries like Prototype change the output of JSON.stringify. If the page runs the
+ * runtime agent (see JSModifyProxyPlugin.setRuntimeAgent()), the script drains the agent instead,
+ * which returns only the changes since it was last drained and adds "agent":true.
+ */
+final class DynamicSmellProbe {
+
+	/**
+	 * Browser objects that are not objects of the application.
+	 */
+	private static final Set<String> IGNORED_OBJECTS = new HashSet<String>(Arrays.asList("window",
+	        "document", "top", "navigator", "location", "InstallTrigger", "fxdriver_id",
+	        "__fxdriver_unwrapped"));
+
+	/**
+	 * Properties of window that are not global variables of the application.
+	 */
+	private static final Set<String> IGNORED_GLOBALS = new HashSet<String>(IGNORED_OBJECTS);
+	static {
+		IGNORED_GLOBALS.addAll(Arrays.asList("self", "parent", "history", "screen"));
+	}
+
+	/**
+	 * Part of the name of the arrays added by the instrumentation.
+	 */
+	private static final String EXECUTION_COUNTER = "exec_counter";
+
+	/**
+	 * Prefix of the objects added to the page by JSNose, like the counter registry.
+	 */
+	private static final String JSNOSE_PREFIX = "__jsnose";
+
+	private static final String SCRIPT = ""
+	        + "var candidates = %s; "
+	        + "var ignored = %s; "
+	        + "if (window.__jsnose_agent) return window.__jsnose_agent.drain(candidates); "
+	        + "function isIgnored(name) {"
+	        + "if (name.indexOf('" + EXECUTION_COUNTER + "') != -1) return true; "
+	        + "if (name.indexOf('" + JSNOSE_PREFIX + "') == 0) return true; "
+	        + "for (var i = 0; i < ignored.length; i++) if (ignored[i] === name) return true; "
+	        + "return false; "
+	        + "} "
+	        + "function quote(s) {"
+	        + "s = String(s); "
+	        + "var quoted = '\"'; "
+	        + "for (var i = 0; i < s.length; i++) {"
+	        + "var c = s.charAt(i), code = s.charCodeAt(i); "
+	        + "if (c == '\"' || c == '\\\\') quoted += '\\\\' + c; "
+	        + "else if (code < 32) quoted += '\\\\u' + ('000' + code.toString(16)).slice(-4); "
+	        + "else quoted += c; "
+	        + "} "
+	        + "return quoted + '\"'; "
+	        + "} "
+	        + "function list(a) {"
+	        + "var quoted = []; "
+	        + "for (var i = 0; i < a.length; i++) quoted.push(quote(a[i])); "
+	        + "return '[' + quoted.join(',') + ']'; "
+	        + "} "
+	        // names like a.b are resolved property by property, an unknown part throws as in the page
+	        + "function resolve(name) {"
+	        + "var parts = name.split('.'), o = window; "
+	        + "for (var i = 0; i < parts.length; i++) o = o[parts[i]]; "
+	        + "return o; "
+	        + "} "
+	        + "var globals = []; "
+	        + "for (var property in window) {"
+	        + "try {"
+	        + "if (window.hasOwnProperty(property) && !isIgnored(property) "
+	        + "&& typeof window[property] !== 'function') globals.push(property); "
+	        + "} catch (e) {} "
+	        + "} "
+	        + "var objects = []; "
+	        + "for (var j = 0; j < candidates.length; j++) {"
+	        + "try {"
+	        + "var o = resolve(candidates[j]); "
+	        + "if (typeof o == 'object') {"
+	        + "var own = [], inherited = []; "
+	        + "for (var p in o) {"
+	        + "if (o.hasOwnProperty(p)) own.push(p); else inherited.push(p); "
+	        + "} "
+	        + "objects.push('{\"name\":' + quote(candidates[j]) + ',\"own\":' + list(own) "
+	        + "+ ',\"inherited\":' + list(inherited) + '}'); "
+	        + "} "
+	        + "} catch (e) {} "
+	        + "} "
+	        + "return '{\"globals\":' + list(globals) + ',\"objects\":[' + objects.join(',') + ']}';";
+
+	private DynamicSmellProbe() {
+
+	}
+
+	/**
+	 * @param candidates
+	 *            Names of the candidate objects, see SmellDetector.getcandidateJSObjectList().
+	 * @return the script to execute in the browser.
+	 */
+	static String getScript(Collection<String> candidates) {
+		JSONArray names = new JSONArray();
+		for (String candidate : candidates) {
+			if (!IGNORED_OBJECTS.contains(candidate) && !candidate.contains(EXECUTION_COUNTER)
+			        && !candidate.startsWith(JSNOSE_PREFIX)) {
+				names.put(candidate);
+			}
+		}
+		return String.format(SCRIPT, names.toString(), new JSONArray(IGNORED_GLOBALS).toString());
+	}
+}
@@ -1,6 +1,7 @@
 package com.crawljax.core;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 
 import org.apache.log4j.Logger;
 
@@ -99,21 +100,12 @@ public class InitialCrawler extends Crawler {
 
 		if (getCoverage){
 			// Amin: Calculate initial code coverage
-			for (String modifiedJS : JSModifyProxyPlugin.getModifiedJSList()){
-				// LOGGER.info("** MODIFIEDS ARE: " + modifiedJS);
-				try{
-					Object counter =  this.browser.executeJavaScript("return " + modifiedJS + "_exec_counter;");
-					ArrayList countList = (ArrayList) counter;
-
-					this.controller.setCountList(modifiedJS, counter);
-				}catch (Exception e) {
-					LOGGER.info("Could not execute script");
-				}
-			}
-			double cov = this.controller.getCoverage(false);
+			CoverageHarvest.harvest(this.browser, JSModifyProxyPlugin.getModifiedJSList(), this.controller);
+			this.controller.getCoverage(false);
 
+			BitSet newlyCoveredLines = this.controller.takeNewlyCoveredLines();
 			if (controller.isDiverseCrawling())
-				controller.getSession().getStateFlowGraph().setInitialCoverage(indexState, cov);
+				controller.getSession().getStateFlowGraph().setInitialCoverage(indexState, newlyCoveredLines, this.controller.getTotalLines());
 
 		}
 
@@ -18,6 +18,8 @@ import com.crawljax.util.TreeEditDist.RTED_InfoTree_Opt;
 import com.google.common.util.concurrent.Service.State;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
@@ -49,13 +51,19 @@ public class StateFlowGraph {
 	 */
 	private Map<String,Double> statesDomDiversity = new Hashtable<String,Double>();
 	private Map<String,Double> statesPathDiversity = new Hashtable<String,Double>();
-	private Map<String,Double> statesCoverageIncrease = new Hashtable<String,Double>();
 	private Map<String,Double> eventScore = new Hashtable<String,Double>();   // numerator
 	private Map<String,Integer> eventCount = new Hashtable<String,Integer>(); // denominator
 	private boolean diverseCrawling = false;
 	private boolean efficientCrawling = false;
 	private ArrayList<StateVertix> notFullExpandedStates = new ArrayList<StateVertix>();
 
+	/**
+	 * States in the graph by the fingerprint of their stripped dom, so a clone is found without
+	 * comparing the dom of every state.
+	 */
+	@GuardedBy("sfg")
+	private final Map<String, StateVertix> statesByFingerprint = new HashMap<String, StateVertix>();
+
 	//Amin: later remove
 	boolean done = false;
 	
@@ -70,19 +78,26 @@ public class StateFlowGraph {
 	public ArrayList<StateVertix> getNotFullExpandedStates(){
 		return notFullExpandedStates;
 	}
-	//Amin
-	private double latestCoverage = 0.0;
-	private double latestCoverageIncrease = 0.0;
-	public void setLatestCoverage(double newCoverage){
-		latestCoverageIncrease = newCoverage-latestCoverage;
-		if (latestCoverageIncrease<0)
-			latestCoverageIncrease=0; // sometimes in the beginning there is a high coverage, later new scripts are modified and thus coverage decreases
-		latestCoverage = newCoverage;
+	//Amin: lines first covered since the previous state, set on the next state added to the graph
+	private BitSet latestCoveredLines = new BitSet();
+	private int totalLines = 0;
+	// the state that covered a line first, by line index, filled when the covered lines of a state are set
+	private final ArrayList<StateVertix> firstCoveringStates = new ArrayList<StateVertix>();
+
+	/**
+	 * @param newlyCoveredLines
+	 *            Lines covered for the first time since the last call, see
+	 *            CrawljaxController.takeNewlyCoveredLines().
+	 * @param totalLines
+	 *            Number of instrumented lines known so far.
+	 */
+	public synchronized void setLatestCoverage(BitSet newlyCoveredLines, int totalLines){
+		latestCoveredLines = newlyCoveredLines;
+		this.totalLines = totalLines;
 	}	
 
-	public void setInitialCoverage(StateVertix initState, double newCoverage){
-		latestCoverageIncrease = newCoverage-latestCoverage;
-		latestCoverage = newCoverage;
+	public void setInitialCoverage(StateVertix initState, BitSet newlyCoveredLines, int totalLines){
+		setLatestCoverage(newlyCoveredLines, totalLines);
 		setCoverageIncrease(initState);
 	}		
 	
@@ -104,6 +119,7 @@ public class StateFlowGraph {
 	public StateFlowGraph(StateVertix initialState) {
 		this();
 		sfg.addVertex(initialState);
+		statesByFingerprint.put(initialState.getFingerprint(), initialState);
 		notFullExpandedStates.add(initialState);
 	}
 
@@ -148,6 +164,7 @@ public class StateFlowGraph {
 				// Graph already contained the vertix
 				return this.getStateInGraph(stateVertix);
 			} else {
+				statesByFingerprint.put(stateVertix.getFingerprint(), stateVertix);
 				/**
 				 * A new State has been added so check to see if the name is correct, remember this
 				 * is the only place states can be added and we are now locked so getAllStates.size
@@ -353,13 +370,19 @@ public class StateFlowGraph {
 
 	/**
 	 * Retrieve the copy of a state from the StateFlowGraph for a given StateVertix. Basically it
-	 * performs v.equals(u).
+	 * performs v.equals(u), looking the state up by its fingerprint first.
 	 * 
 	 * @param state
 	 *            the StateVertix to search
 	 * @return the copy of the StateVertix in the StateFlowGraph where v.equals(u)
 	 */
 	private StateVertix getStateInGraph(StateVertix state) {
+		StateVertix indexed = statesByFingerprint.get(state.getFingerprint());
+		if (state.equals(indexed)) {
+			return indexed;
+		}
+
+		// only if the doms collide or the states differ in guided crawling
 		Set<StateVertix> states = getAllStates();
 
 		for (StateVertix st : states) {
@@ -560,29 +583,48 @@ public class StateFlowGraph {
 	
 	/**
 	 * @author aminmf
-	 * Setting coverage increase for a state using the latestCoverageIncrease
-	 */
-	private void setCoverageIncrease(StateVertix stateVertix) {
-		synchronized(statesCoverageIncrease){
-				LOGGER.info("CoverageIncrease for states " + stateVertix.getName() + " is " + latestCoverageIncrease);
-				statesCoverageIncrease.put(stateVertix.toString(), latestCoverageIncrease);
+	 * Setting the lines covered for the first time when reaching a state using the latestCoveredLines
+	 */
+	private synchronized void setCoverageIncrease(StateVertix stateVertix) {
+		LOGGER.info("CoverageIncrease for states " + stateVertix.getName() + " is " + latestCoveredLines.cardinality() + " lines");
+		stateVertix.setCoveredLines(latestCoveredLines);
+		for (int line = latestCoveredLines.nextSetBit(0); line >= 0; line = latestCoveredLines.nextSetBit(line + 1)){
+			while (firstCoveringStates.size() <= line)
+				firstCoveringStates.add(null);
+			if (firstCoveringStates.get(line) == null)
+				firstCoveringStates.set(line, stateVertix);
 		}
+		latestCoveredLines = new BitSet();
 	}
 
+	/**
+	 * @return the ratio of the instrumented lines that were covered for the first time when the state
+	 *         was reached
+	 */
 	public double getCoverageIncrease(StateVertix stateVertix) {
-		double cov = 0.0;
-
-		synchronized(statesCoverageIncrease){
-			try{
-				cov = statesCoverageIncrease.get(stateVertix.toString());	
-				LOGGER.info("**** CoverageIncrease for states " + stateVertix.getName() + " is " + cov);
-			}catch(Exception e){
-				e.printStackTrace();
-			}
+		BitSet coveredLines = stateVertix.getCoveredLines();
+		int lines;
+		synchronized(this){
+			lines = totalLines;
 		}
+		if (coveredLines == null || lines == 0)
+			return 0.0;
+
+		double cov = (double)coveredLines.cardinality()/(double)lines;
+		LOGGER.info("**** CoverageIncrease for states " + stateVertix.getName() + " is " + cov);
 		return cov;
 	}
 
+	/**
+	 * @return the state that covered the given line first, or null if the line is not covered by
+	 *         any state in the graph
+	 */
+	public synchronized StateVertix getStateCoveringLine(int line) {
+		if (line < 0 || line >= firstCoveringStates.size())
+			return null;
+		return firstCoveringStates.get(line);
+	}
+
 
 	
 	
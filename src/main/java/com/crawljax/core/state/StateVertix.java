@@ -1,5 +1,7 @@
 package com.crawljax.core.state;
 
+import codesmells.RuntimeSnapshot;
+
 import com.crawljax.core.CandidateCrawlAction;
 import com.crawljax.core.CandidateElement;
 import com.crawljax.core.CandidateElementExtractor;
@@ -15,7 +17,6 @@ import com.crawljax.util.TreeEditDist.LblTree;
 import net.jcip.annotations.GuardedBy;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -27,7 +28,11 @@ import org.xml.sax.SAXException;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 //import java.util.Comparator;
 //import java.util.Date;
@@ -56,9 +61,18 @@ public class StateVertix implements Serializable {
 	private String dom;
 	private final String strippedDom;
 
+	// Amin: MD5 of the stripped dom, computed once, so states with different doms are told apart without comparing the doms
+	private final String fingerprint;
+
 	// added by Amin to store DOM tree structure
 	private LblTree domTree;
 
+	// Amin: globals and objects found in the browser in this state, null until the state is analysed
+	private volatile RuntimeSnapshot runtimeSnapshot = null;
+
+	// Amin: instrumented lines first covered when this state was reached, see CrawljaxController.getLineIndex()
+	private volatile BitSet coveredLines = null;
+
 	/**
 	 * The path followed from the index to this state.
 	 */
@@ -107,6 +121,7 @@ public class StateVertix implements Serializable {
 	 */
 	public StateVertix() {
 		this.strippedDom = "";
+		this.fingerprint = fingerprint(strippedDom);
 		this.url = "";
 		this.crawlPath = null;
 	}
@@ -141,6 +156,7 @@ public class StateVertix implements Serializable {
 		this.name = name;
 		this.dom = dom;
 		this.strippedDom = strippedDom;
+		this.fingerprint = fingerprint(strippedDom);
 		this.crawlPath = cPath;
 
 		try {
@@ -184,6 +200,38 @@ public class StateVertix implements Serializable {
 		return domTree;
 	}
 
+	/**
+	 * @return the globals and objects found in the browser in this state, null if the state is not
+	 *         analysed yet
+	 */
+	public RuntimeSnapshot getRuntimeSnapshot() {
+		return runtimeSnapshot;
+	}
+
+	/**
+	 * @param runtimeSnapshot
+	 *            The globals and objects found in the browser in this state.
+	 */
+	public void setRuntimeSnapshot(RuntimeSnapshot runtimeSnapshot) {
+		this.runtimeSnapshot = runtimeSnapshot;
+	}
+
+	/**
+	 * @return the instrumented lines that were covered for the first time when this state was
+	 *         reached, null if coverage is not calculated
+	 */
+	public BitSet getCoveredLines() {
+		return coveredLines;
+	}
+
+	/**
+	 * @param coveredLines
+	 *            The instrumented lines covered for the first time when this state was reached.
+	 */
+	public void setCoveredLines(BitSet coveredLines) {
+		this.coveredLines = coveredLines;
+	}
+
 	/**
 	 * @return the stripped dom by the oracle comparators
 	 */
@@ -199,20 +247,43 @@ public class StateVertix implements Serializable {
 	}
 
 	/**
-	 * Returns a hashcode. Uses reflection to determine the fields to test.
+	 * @return the 128-bit MD5 fingerprint of the stripped dom as a hex string
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @param strippedDom
+	 *            The stripped dom.
+	 * @return the hex representation of the MD5 hash of the stripped dom
+	 */
+	private static String fingerprint(String strippedDom) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] hash =
+			        digest.digest((strippedDom == null ? "" : strippedDom).getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not supported", e);
+		}
+	}
+
+	/**
+	 * Returns a hashcode based on the fingerprint of the stripped dom.
 	 * 
 	 * @return the hashCode of this StateVertix
 	 */
 	@Override
 	public int hashCode() {
-		HashCodeBuilder builder = new HashCodeBuilder();
-		if (strippedDom == null || "".equals(strippedDom)) {
-			builder.append(dom);
-		} else {
-			builder.append(strippedDom);
-		}
-
-		return builder.toHashCode();
+		return fingerprint.hashCode();
 	}
 
 	/**
@@ -234,6 +305,11 @@ public class StateVertix implements Serializable {
 		}
 		final StateVertix rhs = (StateVertix) obj;
 
+		// different fingerprints mean different doms, equal fingerprints are checked on the doms
+		if (!this.fingerprint.equals(rhs.fingerprint)) {
+			return false;
+		}
+
 		return new EqualsBuilder().append(this.strippedDom, rhs.getStrippedDom()).append(
 				this.guidedCrawling, rhs.guidedCrawling).isEquals();
 	}
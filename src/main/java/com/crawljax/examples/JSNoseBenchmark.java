@@ -0,0 +1,225 @@
+package com.crawljax.examples;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Parser;
+import org.mozilla.javascript.ast.AstNode;
+import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.FunctionNode;
+
+import codesmells.SmellDetector;
+
+import com.crawljax.plugins.aji.ConsoleErrorReporter;
+import com.crawljax.plugins.aji.JSASTModifier;
+import com.crawljax.plugins.aji.executiontracer.AstInstrumenter;
+
+/**
+ * Measures how long JSNose takes to instrument and analyse generated scripts, without a browser or
+ * proxy.
+ */
+public final class JSNoseBenchmark {
+
+	private static final String SCOPE_NAME = "http://localhost/benchmark/app.js";
+
+	private static final int DEFAULT_NUMBER_OF_FUNCTIONS = 1000;
+
+	private static final int RUNS = 5;
+
+	/**
+	 * Number of objects in the scripts of the smell analysis measurements, each object takes about
+	 * ten lines.
+	 */
+	private static final int[] SCALING_OBJECTS = { 500, 1000, 2000 };
+
+	private JSNoseBenchmark() {
+
+	}
+
+	/**
+	 * Prints the times only, codesmells.SmellAnalysisScalingTest checks that the smell analysis
+	 * scales linearly.
+	 *
+	 * @param args
+	 *            Optional number of functions in the generated script.
+	 */
+	public static void main(String[] args) {
+		int functions = DEFAULT_NUMBER_OF_FUNCTIONS;
+		if (args.length > 0) {
+			functions = Integer.parseInt(args[0]);
+		}
+
+		String script = generateScript(functions);
+		int lines = script.split("\n").length;
+
+		PrintStream console = System.out;
+		/* keep console output out of the measurements */
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+
+		try {
+			/* warm up */
+			instrument(new ParsingInstrumenter(), script);
+			instrument(new AstInstrumenter(), script);
+
+			long parsing = Long.MAX_VALUE;
+			long building = Long.MAX_VALUE;
+			String parsedResult = null;
+			String builtResult = null;
+			for (int i = 0; i < RUNS; i++) {
+				long start = System.nanoTime();
+				parsedResult = instrument(new ParsingInstrumenter(), script);
+				parsing = Math.min(parsing, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				builtResult = instrument(new AstInstrumenter(), script);
+				building = Math.min(building, System.nanoTime() - start);
+			}
+
+			console.println("Instrumenting " + lines + " lines (" + functions
+			        + " functions), best of " + RUNS + " runs:");
+			console.println("  parsing every counter node:  " + parsing / 1000000 + " ms");
+			console.println("  building counter nodes:      " + building / 1000000 + " ms");
+			console.println("  instrumented code identical: " + parsedResult.equals(builtResult));
+
+			/* warm up with every size, so the smallest size is not measured with less optimized code */
+			for (int objects : SCALING_OBJECTS) {
+				analyse(generateObjects(objects));
+			}
+
+			console.println("Smell analysis, best of " + RUNS + " runs:");
+			double firstTimePerObject = 0;
+			for (int objects : SCALING_OBJECTS) {
+				String objectScript = generateObjects(objects);
+				long analysis = Long.MAX_VALUE;
+				for (int i = 0; i < RUNS; i++) {
+					long start = System.nanoTime();
+					analyse(objectScript);
+					analysis = Math.min(analysis, System.nanoTime() - start);
+				}
+				double timePerObject = (double) analysis / objects;
+				if (firstTimePerObject == 0) {
+					firstTimePerObject = timePerObject;
+				}
+				console.println("  " + objectScript.split("\n").length + " lines (" + objects
+				        + " objects): " + analysis / 1000000 + " ms, "
+				        + Math.round(timePerObject / 1000) + " us per object, ratio "
+				        + String.format("%.2f", timePerObject / firstTimePerObject));
+			}
+		} finally {
+			System.setOut(console);
+		}
+	}
+
+	/**
+	 * Instrument a script the same way JSModifyProxyPlugin does.
+	 *
+	 * @param modifier
+	 *            The modifier to use.
+	 * @param script
+	 *            The JavaScript code.
+	 * @return The instrumented code.
+	 */
+	private static String instrument(JSASTModifier modifier, String script) {
+		Parser rhinoParser = new Parser(new CompilerEnvirons(), new ConsoleErrorReporter());
+		AstRoot ast = rhinoParser.parse(script, SCOPE_NAME, 0);
+
+		modifier.setScopeName(SCOPE_NAME);
+		modifier.start();
+		ast.visit(modifier);
+		modifier.finish(ast);
+
+		return ast.toSource();
+	}
+
+	/**
+	 * Analyse a script for code smells, including the smells found on the objects of the whole
+	 * crawl.
+	 *
+	 * @param script
+	 *            The JavaScript code.
+	 */
+	private static void analyse(String script) {
+		SmellDetector.reset();
+		SmellDetector.merge(SmellDetector.analyseScript("app.js", script, SCOPE_NAME));
+		SmellDetector.analyseObjecsList();
+	}
+
+	/**
+	 * @param objects
+	 *            Number of objects.
+	 * @return JavaScript code with the given number of objects, each with its own properties and
+	 *         the previous object as prototype.
+	 */
+	private static String generateObjects(int objects) {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < objects; i++) {
+			script.append("var o").append(i).append(" = {\n");
+			script.append("  a").append(i).append(": 1,\n");
+			script.append("  b").append(i).append(": \"b\",\n");
+			script.append("  c").append(i).append(": true\n");
+			script.append("};\n");
+			script.append("function C").append(i).append("(x, y) {\n");
+			script.append("  this.x = x;\n");
+			script.append("  this.y = y + o").append(i).append(".a").append(i).append(";\n");
+			script.append("}\n");
+			if (i > 0) {
+				script.append("C").append(i).append(".prototype = new C").append(i - 1)
+				        .append("();\n");
+			}
+		}
+		return script.toString();
+	}
+
+	/**
+	 * @param functions
+	 *            Number of functions.
+	 * @return JavaScript code with the given number of functions of about ten lines each.
+	 */
+	private static String generateScript(int functions) {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < functions; i++) {
+			script.append("function f").append(i).append("(a, b) {\n");
+			script.append("  var x = a + ").append(i).append(";\n");
+			script.append("  if (x > b) {\n");
+			script.append("    x = x - b;\n");
+			script.append("  }\n");
+			script.append("  for (var j = 0; j < 3; j++) {\n");
+			script.append("    x += j;\n");
+			script.append("  }\n");
+			script.append("  return x;\n");
+			script.append("}\n");
+		}
+		return script.toString();
+	}
+
+	/**
+	 * Instrumenter that parses the source code of every counter node, as was done before the nodes
+	 * were built by CounterNodeFactory.
+	 */
+	private static class ParsingInstrumenter extends AstInstrumenter {
+
+		@Override
+		protected AstNode createNode(FunctionNode function, String postfix, int lineNo) {
+			return parse(super.createNode(function, postfix, lineNo).toSource());
+		}
+
+		@Override
+		protected AstNode createNode(AstRoot root, String postfix, int lineNo, int rootCount) {
+			return parse(super.createNode(root, postfix, lineNo, rootCount).toSource());
+		}
+
+		@Override
+		public JSASTModifier newInstance() {
+			return new ParsingInstrumenter();
+		}
+	}
+}
@@ -2,6 +2,12 @@ package com.crawljax.examples;
 
 import org.apache.commons.configuration.ConfigurationException;
 
+import codesmells.SmellDetector;
+import codesmells.SmellListener;
+import codesmells.SmellLocation;
+import codesmells.SmellResult;
+import codesmells.SmellType;
+
 import com.crawljax.browser.EmbeddedBrowser.BrowserType;
 import com.crawljax.core.CrawljaxController;
 import com.crawljax.core.CrawljaxException;
@@ -18,7 +24,9 @@ import com.crawljax.core.configuration.Form;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 
 /**
@@ -87,9 +95,27 @@ public final class JSNoseExample {
 		WebScarabWrapper web = new WebScarabWrapper();
 		config.addPlugin(web);
 		JSModifyProxyPlugin modifier = new JSModifyProxyPlugin(new AstInstrumenter());
+		// use typed arrays for the execution counters to lower the overhead in the instrumented pages
+		//JSModifyProxyPlugin modifier = new JSModifyProxyPlugin(new AstInstrumenter(true));
 		modifier.excludeDefaults();
+		// count only function entries (or basic blocks) for fast crawls with less instrumentation overhead
+		//modifier.setGranularity(JSASTModifier.Granularity.FUNCTION);
+		// keep instrumented scripts on disk so repeated crawls of the same application start warm
+		//modifier.setInstrumentationCache(new InstrumentationCache(new File("instrumentation-cache")));
+		// keep the smell analysis of unchanged scripts on disk between crawls
+		//SmellAnalysisQueue.setResultCache(new SmellResultCache(new File("smell-cache")));
+		// get the globals and objects of every state from an agent injected into the pages instead of probing them
+		//modifier.setRuntimeAgent(true);
+		// recognize bundled or renamed libraries by content only with your own fingerprints (null: by URL only)
+		//modifier.setLibraryFingerprints(fingerprints);
 		web.addPlugin(modifier);
 
+		// the report is written to SmellReport.jsonl, use a .csv file or another sink for spreadsheets
+		//SmellDetector.setReportFile(new File("SmellReport.csv"));
+		//SmellDetector.addReportSink(new CsvSmellReportSink(new File("smells.csv"), false));
+		// print the full report and the object analysis to the console as well
+		//SmellDetector.setConsoleReport(true);
+
 		
 		return config;
 	}
@@ -206,8 +232,26 @@ public final class JSNoseExample {
 
 
 		try {
-			CrawljaxController crawljax = new CrawljaxController(getCrawljaxConfiguration());
+			CrawljaxConfiguration config = getCrawljaxConfiguration();
+
+			// follow the smells while crawling if the report is printed to the console, the full report is written at the end
+			if (SmellDetector.isConsoleReport()){
+				SmellDetector.addSmellListener(new SmellListener() {
+					@Override
+					public void smellsFound(String jsFileName, Map<SmellType, Set<SmellLocation>> newSmells) {
+						for (Map.Entry<SmellType, Set<SmellLocation>> smells : newSmells.entrySet())
+							System.out.println(jsFileName + ": " + smells.getValue().size() + " new " + smells.getKey());
+					}
+				});
+			}
+
+			CrawljaxController crawljax = new CrawljaxController(config);
 			crawljax.run();
+
+			// the states that first covered a counter are in the coverage part of SmellReport.txt
+			SmellResult result = SmellDetector.getCrawlResult();
+			for (SmellType type : SmellType.values())
+				System.out.println(type + ": " + result.getSmells(type).size());
 		} catch (CrawljaxException e) {
 			e.printStackTrace();
 			System.exit(1);
@@ -0,0 +1,268 @@
+package com.crawljax.plugins.aji;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import com.crawljax.plugins.aji.executiontracer.CounterLocations;
+
+/**
+ * Cache of instrumented JavaScript. Entries are keyed by a hash of the original script body, the
+ * scope name (the counter array is named after it) and the instrumenter and its settings, so a script
+ * that is fetched again while backtracking does not need to be parsed, visited and serialized
+ * again. An optional on-disk tier keeps the entries between crawls of the same application. The
+ * source locations of the counters of an instrumented script are kept alongside it. At most
+ * {@link #DEFAULT_MAX_ENTRIES} scripts are kept in memory, the least recently used ones are
+ * removed first and are read again from the on-disk tier when it is used.
+ */
+public class InstrumentationCache {
+
+	private static final Logger LOGGER = Logger.getLogger(InstrumentationCache.class.getName());
+
+	private static final String ENCODING = "UTF-8";
+
+	private static final String FILE_EXTENSION = ".js";
+
+	private static final String LOCATIONS_FILE_EXTENSION = ".lines";
+
+	/**
+	 * Default number of scripts kept in memory.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 200;
+
+	private final Map<String, String> entries;
+
+	private final Map<String, CounterLocations> locations;
+
+	/**
+	 * Directory of the on-disk tier, null if the cache only lives in memory.
+	 */
+	private final File cacheDirectory;
+
+	/**
+	 * Construct an in-memory cache.
+	 */
+	public InstrumentationCache() {
+		this(null);
+	}
+
+	/**
+	 * Construct a cache that also stores its entries in the given directory.
+	 *
+	 * @param cacheDirectory
+	 *            The directory for the on-disk tier, or null to keep the cache in memory only.
+	 */
+	public InstrumentationCache(File cacheDirectory) {
+		this(cacheDirectory, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Construct a cache that keeps at most the given number of scripts in memory.
+	 *
+	 * @param cacheDirectory
+	 *            The directory for the on-disk tier, or null to keep the cache in memory only.
+	 * @param maxEntries
+	 *            The number of scripts kept in memory.
+	 */
+	public InstrumentationCache(File cacheDirectory, int maxEntries) {
+		this.cacheDirectory = cacheDirectory;
+		this.entries = lruMap(maxEntries);
+		this.locations = lruMap(maxEntries);
+		if (cacheDirectory != null && !cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+			LOGGER.warn("Could not create instrumentation cache directory " + cacheDirectory);
+		}
+	}
+
+	/**
+	 * Compute the cache key of a script.
+	 *
+	 * @param input
+	 *            The original JavaScript.
+	 * @param scopename
+	 *            Name of the scope (filename mostly).
+	 * @param modifier
+	 *            The instrumenter that is going to modify the script.
+	 * @return The key for this script.
+	 */
+	public String key(String input, String scopename, JSASTModifier modifier) {
+		return hash(modifier.getInstrumentationKey() + '\0' + scopename + '\0' + input);
+	}
+
+	/**
+	 * @param key
+	 *            The key computed by {@link #key(String, String, JSASTModifier)}.
+	 * @return The instrumented JavaScript or null if it is not cached.
+	 */
+	public String get(String key) {
+		String instrumented = entries.get(key);
+		if (instrumented != null || cacheDirectory == null) {
+			return instrumented;
+		}
+
+		File file = new File(cacheDirectory, key + FILE_EXTENSION);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			instrumented = FileUtils.readFileToString(file, ENCODING);
+			entries.put(key, instrumented);
+		} catch (IOException e) {
+			LOGGER.warn("Could not read cached instrumentation " + file);
+		}
+		return instrumented;
+	}
+
+	/**
+	 * Store the instrumented version of a script.
+	 *
+	 * @param key
+	 *            The key computed by {@link #key(String, String, JSASTModifier)}.
+	 * @param instrumented
+	 *            The instrumented JavaScript.
+	 */
+	public void put(String key, String instrumented) {
+		entries.put(key, instrumented);
+		if (cacheDirectory == null) {
+			return;
+		}
+
+		try {
+			write(new File(cacheDirectory, key + FILE_EXTENSION), instrumented);
+		} catch (IOException e) {
+			LOGGER.warn("Could not write instrumentation cache entry " + key);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            The key computed by {@link #key(String, String, JSASTModifier)}.
+	 * @return The source locations of the counters of the instrumented script or null if they are
+	 *         not cached.
+	 */
+	public CounterLocations getLocations(String key) {
+		CounterLocations cached = locations.get(key);
+		if (cached != null || cacheDirectory == null) {
+			return cached;
+		}
+
+		File file = new File(cacheDirectory, key + LOCATIONS_FILE_EXTENSION);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			cached = CounterLocations.parse(FileUtils.readFileToString(file, ENCODING));
+			locations.put(key, cached);
+		} catch (IOException e) {
+			LOGGER.warn("Could not read cached counter locations " + file);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid cached counter locations " + file);
+		}
+		return cached;
+	}
+
+	/**
+	 * Store the source locations of the counters of an instrumented script.
+	 *
+	 * @param key
+	 *            The key computed by {@link #key(String, String, JSASTModifier)}.
+	 * @param counterLocations
+	 *            The locations.
+	 */
+	public void putLocations(String key, CounterLocations counterLocations) {
+		locations.put(key, counterLocations);
+		if (cacheDirectory == null) {
+			return;
+		}
+
+		try {
+			write(new File(cacheDirectory, key + LOCATIONS_FILE_EXTENSION), counterLocations.format());
+		} catch (IOException e) {
+			LOGGER.warn("Could not write counter locations of cache entry " + key);
+		}
+	}
+
+	/**
+	 * Write a file of the on-disk tier. The content is written to a temporary file first and then
+	 * renamed, so neither a concurrent reader nor a later crawl sees a partially written entry.
+	 *
+	 * @param file
+	 *            The file of the entry.
+	 * @param content
+	 *            The content of the entry.
+	 * @throws IOException
+	 *             if the entry could not be written.
+	 */
+	private void write(File file, String content) throws IOException {
+		File tmp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			FileUtils.writeStringToFile(tmp, content, ENCODING);
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Could not rename " + tmp + " to " + file);
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * @return The number of entries in memory.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Remove all entries from memory. The on-disk tier is left untouched.
+	 */
+	public void clear() {
+		entries.clear();
+		locations.clear();
+	}
+
+	/**
+	 * @param maxEntries
+	 *            The number of entries to keep.
+	 * @return A synchronized map that removes its least recently used entry when it grows larger
+	 *         than the given number of entries.
+	 */
+	private static <V> Map<String, V> lruMap(final int maxEntries) {
+		return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > maxEntries;
+			}
+		});
+	}
+
+	/**
+	 * @param text
+	 *            The text to hash.
+	 * @return Hex representation of the SHA-1 hash of the text.
+	 */
+	public static String hash(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(text.getBytes(ENCODING));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(ENCODING + " is not supported", e);
+		}
+	}
+}
@@ -28,14 +28,15 @@ import java.util.Iterator;
 
 import org.apache.log4j.Logger;
 import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Node;
 import org.mozilla.javascript.Parser;
 import org.mozilla.javascript.Token;
 import org.mozilla.javascript.ast.*;
 
-import codesmells.SmellDetector;
 
 import com.crawljax.core.CrawljaxController;
 import com.crawljax.examples.JSNoseExample;
+import com.crawljax.plugins.aji.executiontracer.CounterLocations;
 import com.crawljax.plugins.aji.executiontracer.ProgramPoint;
 import com.crawljax.util.Tree;
 import com.crawljax.util.TreeNode;
@@ -49,12 +50,37 @@ import com.crawljax.util.TreeNode;
  */
 public abstract class JSASTModifier implements NodeVisitor {
 
+	/**
+	 * Which code gets an execution counter.
+	 */
+	public enum Granularity {
+		/**
+		 * Only the entry of every function and script.
+		 */
+		FUNCTION,
+		/**
+		 * The entry of every function and script and the first statement of every block, and of
+		 * every statement that follows an if, loop, switch, try or jump.
+		 */
+		BASIC_BLOCK,
+		/**
+		 * Every statement, the default.
+		 */
+		STATEMENT
+	}
+
+	/**
+	 * Version of the instrumentation, part of the key of instrumented scripts in the
+	 * InstrumentationCache. It has to be changed whenever the instrumented code or the counter
+	 * locations for the same script change.
+	 */
+	public static final String INSTRUMENTER_VERSION = "1";
+
 	private final Map<String, String> mapper = new HashMap<String, String>();
 	
 	//Amin
 	private Tree<String> tree = new Tree<String>();
     private ArrayList<TreeNode<String>> treeNodes = new ArrayList<TreeNode<String>>();
-	private SmellDetector smellDetector = new SmellDetector();
 
 	protected static final Logger LOGGER = Logger.getLogger(CrawljaxController.class.getName());
 	
@@ -66,10 +92,35 @@ public abstract class JSASTModifier implements NodeVisitor {
 	/**
 	 * Contains the scopename of the AST we are visiting. Generally this will be the filename
 	 */
-	private static String scopeName = null;
+	private String scopeName = null;
 
 	//Added by Amin to store js corresponding name
 	protected String jsName = null;
+
+	/**
+	 * Whether the scope should be instrumented for coverage, decided once per scope.
+	 */
+	private boolean instrumentScopeForCoverage = true;
+
+	private Granularity granularity = Granularity.STATEMENT;
+
+	/**
+	 * The original code, used to find the columns of the instrumented nodes. Null if unknown.
+	 */
+	protected String source = null;
+
+	/**
+	 * The node of the original code the node made by the next createNode call is added for.
+	 */
+	private AstNode instrumentedNode = null;
+
+	/**
+	 * Scripts that are not instrumented for coverage.
+	 */
+	private static final UrlFilter coverageExcludeFilter = new UrlFilter();
+	static {
+		coverageExcludeFilter.addPattern(".*min.*.js?.*");
+	}
 	
 	/**
 	 * @param scopeName
@@ -82,6 +133,8 @@ public abstract class JSASTModifier implements NodeVisitor {
 		int index = scopeName.lastIndexOf('/');
 		String s = scopeName.substring(index+1, scopeName.length());
 		jsName = s.replace('.', '_');
+
+		instrumentScopeForCoverage = innstrumentForCoverage(scopeName);
 	}
 	
 	/**
@@ -91,6 +144,45 @@ public abstract class JSASTModifier implements NodeVisitor {
 		return jsName;
 	}
 	
+	/**
+	 * @param granularity
+	 *            Which code gets an execution counter.
+	 */
+	public void setGranularity(Granularity granularity) {
+		this.granularity = granularity;
+	}
+
+	/**
+	 * @return which code gets an execution counter
+	 */
+	public Granularity getGranularity() {
+		return granularity;
+	}
+
+	/**
+	 * @param source
+	 *            The original code of the scope, used to find the columns of instrumented nodes.
+	 */
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * @return the node of the original code that the node made by createNode is added for, e.g. the
+	 *         function for the function entry or the statement for a statement
+	 */
+	protected AstNode getInstrumentedNode() {
+		return instrumentedNode;
+	}
+
+	/**
+	 * @return the source locations of the nodes added by this modifier, null if it does not keep
+	 *         them
+	 */
+	public CounterLocations getCounterLocations() {
+		return null;
+	}
+
 	/**
 	 * @return the scopeName
 	 */
@@ -272,7 +364,7 @@ public abstract class JSASTModifier implements NodeVisitor {
 	
 	public static boolean innstrumentForCoverage(String URL) {		
 		if (!URL.equals("http://127.0.0.1:8081/phormer331/"))
-			if (scopeName.matches(".*min.*.js?.*")) {	// skip the code coverage for admin files
+			if (coverageExcludeFilter.matches(URL)) {	// skip the code coverage for admin files
 				//System.out.println("Not instrumenting the code " + scopeName + "for coverage");
 				return false;
 			}
@@ -281,19 +373,17 @@ public abstract class JSASTModifier implements NodeVisitor {
 	
 	
 	/**
-	 * JSNose version: AST actual node visiting method to detect code smells
+	 * JSNose version: AST actual node visiting method to instrument the code
 	 * 
 	 * @param node
 	 *            The node that is currently visited.
 	 * @return Whether to visit the children.
 	 */	//@Override
 	public boolean visit(AstNode node) {
-		//Amin: This is to analyse AST for detecting code smells before JS code instrumentation
-		smellDetector.SetASTNode(node);
-		smellDetector.analyseAstNode();		
+		//Amin: code smells are detected separately on the original code, see SmellAnalysisQueue
 		
 		// check if the file should be considered for coverage analysis
-		if (innstrumentForCoverage(scopeName)==true)
+		if (instrumentScopeForCoverage)
 			visitAndInstrument(node);
 		
 		//TreeNode<String> n = new TreeNode<String>();
@@ -321,7 +411,41 @@ public abstract class JSASTModifier implements NodeVisitor {
 		
 		FunctionNode func;
 		
-		if (!((node instanceof FunctionNode || node instanceof ReturnStatement || node instanceof SwitchCase || node instanceof AstRoot || node instanceof ExpressionStatement || node instanceof BreakStatement || node instanceof ContinueStatement || node instanceof ThrowStatement || node instanceof VariableDeclaration))) {// || node instanceof ExpressionStatement || node instanceof BreakStatement || node instanceof ContinueStatement || node instanceof ThrowStatement || node instanceof VariableDeclaration || node instanceof ReturnStatement || node instanceof SwitchCase)) {
+		//Amin: the node type decides cheaply if the node may be instrumented, only some types are shared by other kinds of nodes
+		switch (node.getType()) {
+			case Token.FUNCTION:
+			case Token.SCRIPT:
+			case Token.RETURN:
+			case Token.CASE:
+			case Token.BREAK:
+			case Token.CONTINUE:
+			case Token.THROW:
+				break;
+			case Token.EXPR_VOID:	// also a LabeledStatement
+			case Token.EXPR_RESULT:
+				if (!(node instanceof ExpressionStatement)) {
+					return true;
+				}
+				break;
+			case Token.VAR:	// also a VariableInitializer
+			case Token.LET:
+			case Token.CONST:
+				if (!(node instanceof VariableDeclaration)) {
+					return true;
+				}
+				break;
+			default:
+				return true;
+		}
+
+		//Amin: with a coarser granularity most statements are not instrumented
+		if (granularity == Granularity.FUNCTION && !(node instanceof FunctionNode)
+		        && !(node instanceof AstRoot)) {
+			return true;
+		}
+		if (granularity == Granularity.BASIC_BLOCK && !(node instanceof FunctionNode)
+		        && !(node instanceof AstRoot) && !(node instanceof SwitchCase)
+		        && !startsBasicBlock(node)) {
 			return true;
 		}
 
@@ -329,6 +453,7 @@ public abstract class JSASTModifier implements NodeVisitor {
 			func = (FunctionNode) node;
 
 			/* this is function enter */
+			instrumentedNode = func;
 			AstNode newNode = createNode(func, ProgramPoint.ENTERPOSTFIX, func.getLineno());
 
 			func.getBody().addChildToFront(newNode);
@@ -343,7 +468,8 @@ public abstract class JSASTModifier implements NodeVisitor {
 			/* get last line of the function */
 			node = (AstNode) func.getBody().getLastChild();
 			/* if this is not a return statement, we need to add logging here also */
-			if (!(node instanceof ReturnStatement)) {
+			if (!(node instanceof ReturnStatement) && granularity != Granularity.FUNCTION) {
+				instrumentedNode = node;
 				AstNode newNode_end = createNode(func, ProgramPoint.EXITPOSTFIX, node.getLineno()-firstLine+1);
 				/* add as last statement */
 				func.getBody().addChildToBack(newNode_end);
@@ -359,6 +485,7 @@ public abstract class JSASTModifier implements NodeVisitor {
 			
 			//this is the entry point of the AST root
 			m_rootCount++;
+			instrumentedNode = rt;
 			AstNode newNode = createNode(rt, ProgramPoint.ENTERPOSTFIX, rt.getLineno(), m_rootCount);
 
 			rt.addChildToFront(newNode);
@@ -373,7 +500,8 @@ public abstract class JSASTModifier implements NodeVisitor {
 			// get last line of the function
 			node = (AstNode) rt.getLastChild();
 			//if this is not a return statement, we need to add logging here also
-			if (!(node instanceof ReturnStatement)) {
+			if (!(node instanceof ReturnStatement) && granularity != Granularity.FUNCTION) {
+				instrumentedNode = node;
 				AstNode newNode_end = createNode(rt, ProgramPoint.EXITPOSTFIX, node.getLineno()-firstLine+1, m_rootCount);
 				//add as last statement
 				rt.addChildToBack(newNode_end);
@@ -422,6 +550,7 @@ public abstract class JSASTModifier implements NodeVisitor {
 				}
 				
 				if (node.getLineno() >= firstLine) {
+					instrumentedNode = node;
 					AstNode newNode = createNode(func, ":::INTERMEDIATE", node.getLineno()-firstLine+1);
 					//AstNode parent = node.getParent();
 					
@@ -469,6 +598,7 @@ public abstract class JSASTModifier implements NodeVisitor {
 				}
 				
 				if (node.getLineno() >= firstLine) {
+					instrumentedNode = node;
 					AstNode newNode = createNode(rt, ":::INTERMEDIATE", node.getLineno()-firstLine+1, m_rootCount);
 					//AstNode parent = node.getParent();
 					
@@ -512,6 +642,7 @@ public abstract class JSASTModifier implements NodeVisitor {
 			
 			AstNode parent = makeSureBlockExistsAround(node);
 			
+			instrumentedNode = node;
 			AstNode newNode = createNode(func, ProgramPoint.EXITPOSTFIX, node.getLineno()-firstLine+1);
 
 			/* the parent is something we can prepend to */
@@ -541,6 +672,36 @@ public abstract class JSASTModifier implements NodeVisitor {
 		return true;
 	}
 
+	/**
+	 * A statement starts a basic block if it is not preceded by a statement in the same block, or
+	 * if the statement before it may change the flow of control. A statement right after the
+	 * counter at the entry of a function or script is already counted by that counter.
+	 * 
+	 * @param node
+	 *            The statement.
+	 * @return Whether the statement is the first of a basic block.
+	 */
+	private boolean startsBasicBlock(AstNode node) {
+		AstNode parent = node.getParent();
+		if (!(parent instanceof Block) && !(parent instanceof Scope)) {
+			return true; // e.g. the body of an if or a loop without braces
+		}
+
+		Node previous = null;
+		for (Node child = parent.getFirstChild(); child != node; child = child.getNext()) {
+			if (child == null) {
+				return true;
+			}
+			previous = child;
+		}
+
+		if (previous instanceof AstRoot) {
+			return ((AstRoot) previous).getSourceName() != null;
+		}
+		return !(previous instanceof ExpressionStatement || previous instanceof VariableDeclaration
+		        || previous instanceof FunctionNode || previous instanceof EmptyExpression);
+	}
+
 	/**
 	 * This method is called when the complete AST has been traversed.
 	 * 
@@ -555,6 +716,28 @@ public abstract class JSASTModifier implements NodeVisitor {
 	 * This method is called before the AST is going to be traversed.
 	 */
 	public abstract void start();
+
+	/**
+	 * Create a new modifier of the same kind. The proxy uses a new modifier for every script, so
+	 * scripts can be modified by different threads without sharing visitor state.
+	 * 
+	 * @return The new modifier.
+	 */
+	public abstract JSASTModifier newInstance();
+
+	/**
+	 * The instrumentation cache uses this to tell apart scripts modified by different modifiers or
+	 * differently configured modifiers of the same kind.
+	 * 
+	 * @return A string that identifies how this modifier changes scripts.
+	 */
+	public String getInstrumentationKey() {
+		String key = getClass().getName() + ":" + INSTRUMENTER_VERSION;
+		if (granularity != Granularity.STATEMENT) {
+			return key + ":" + granularity;
+		}
+		return key;
+	}
 	
 	private int m_rootCount = 0;
 }
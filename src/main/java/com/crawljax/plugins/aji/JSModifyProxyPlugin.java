@@ -23,17 +23,25 @@ package com.crawljax.plugins.aji;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.mozilla.javascript.CompilerEnvirons;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Parser;
 import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.Token;
+import org.mozilla.javascript.ast.AstNode;
 import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.NodeVisitor;
 import org.mozilla.javascript.ast.ScriptNode;
 import org.mozilla.javascript.ast.Symbol;
 import org.owasp.webscarab.httpclient.HTTPClient;
@@ -41,13 +49,17 @@ import org.owasp.webscarab.model.Request;
 import org.owasp.webscarab.model.Response;
 import org.owasp.webscarab.plugin.proxy.ProxyPlugin;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import codesmells.SmellAnalysisQueue;
 import codesmells.SmellDetector;
 
 import com.crawljax.browser.EmbeddedBrowser;
 //import com.crawljax.plugins.aji.executiontracer.JSExecutionTracer;
+import com.crawljax.plugins.aji.JSASTModifier.Granularity;
+import com.crawljax.plugins.aji.executiontracer.CounterLocations;
 import com.crawljax.util.Helper;
 import com.crawljax.util.Tree;
 import com.crawljax.util.TreeNode;
@@ -65,27 +77,68 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 
 	private static final Logger LOGGER = Logger.getLogger(JSModifyProxyPlugin.class.getName());
 
-	private List<String> excludeFilenamePatterns;
+	private final UrlFilter excludeFilenamePatterns;
 
+	/**
+	 * Only used to create a new modifier for every script, see {@link JSASTModifier#newInstance()}.
+	 */
 	private final JSASTModifier modifier;
 	
-	private boolean htmlFound = false;
+	private volatile boolean htmlFound = false;
 		
 	// Amin: this is needed for retrieving the corresponding array
-	private static List<String> modifiedJS;
+	private static CopyOnWriteArrayList<String> modifiedJS;
 	
 
 	// Amin: keep track of event handlers
-	private HashSet<Node> eventList1 = new HashSet<Node>();
-	private HashSet<String> jsInTag = new HashSet<String>();
-	private boolean foundTagsWithJS = false;
+	private Set<Node> eventList1 = Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>());
+	private Set<String> jsInTag = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private volatile boolean foundTagsWithJS = false;
 	
 	private FileWriter fstream;
 	private BufferedWriter out;
-	
+
+	/**
+	 * Instrumented JavaScript of the scripts seen so far, null to always instrument.
+	 */
+	private InstrumentationCache instrumentationCache = new InstrumentationCache();
+
+	/**
+	 * Known libraries that are not modified whatever their URL is, null to check the URL only.
+	 */
+	private LibraryFingerprints libraryFingerprints = null;
+
+	/**
+	 * Resource with the runtime agent that records globals and objects in the page.
+	 */
+	private static final String RUNTIME_AGENT_RESOURCE = "/jsnose-agent.js";
+
+	private static volatile String runtimeAgent = null;
+
+	private volatile boolean injectRuntimeAgent = false;
+
+	// Amin: write the instrumented code of every js into <js name>.txt, for debugging
+	private volatile boolean writeInstrumentedCode = false;
+
+	// Amin: the counters of all modified js are reported by CrawljaxController.getCoverage in this unit
+	private static volatile Granularity coverageGranularity = Granularity.STATEMENT;
+
+	// Amin: source locations of the counters of every modified js
+	private static final Map<String, CounterLocations> counterLocations =
+	        new ConcurrentHashMap<String, CounterLocations>();
+
 	public static List<String> getModifiedJSList(){
 		return modifiedJS;
 	}
+
+	/**
+	 * @param jsName
+	 *            Name of a modified js, see {@link #getModifiedJSList()}.
+	 * @return the source locations of the counters of the js, null if unknown
+	 */
+	public static CounterLocations getCounterLocations(String jsName){
+		return counterLocations.get(jsName);
+	}
 	
 	
 	/**
@@ -95,8 +148,8 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 	 *            The JSASTModifier to run over all JavaScript.
 	 */
 	public JSModifyProxyPlugin(JSASTModifier modify) {
-		excludeFilenamePatterns = new ArrayList<String>();
-		modifiedJS = new ArrayList<String>();
+		excludeFilenamePatterns = new UrlFilter();
+		modifiedJS = new CopyOnWriteArrayList<String>();
 		modifier = modify;
 	}
 
@@ -109,8 +162,8 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 	 *            List with variable patterns to exclude.
 	 */
 	public JSModifyProxyPlugin(JSASTModifier modify, List<String> excludes) {
-		excludeFilenamePatterns = excludes;
-
+		excludeFilenamePatterns = new UrlFilter(excludes);
+		modifiedJS = new CopyOnWriteArrayList<String>();
 		modifier = modify;
 	}
 
@@ -127,40 +180,173 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 	 * <li>All kinds of Google scripts (Adwords, Analytics, etc)</li>
 	 * <li>Minified JavaScript files with min, compressed or pack in the URL.</li>
 	 * </ul>
+	 * Copies of the libraries in the default {@link LibraryFingerprints} are excluded by their
+	 * content as well.
 	 */
 	public void excludeDefaults() {
+		libraryFingerprints = LibraryFingerprints.getDefault();
 		
-		excludeFilenamePatterns.add(".*jquery[-0-9.]*.js?.*");
-		excludeFilenamePatterns.add(".*jquery.*.js?.*");
-		excludeFilenamePatterns.add(".*prototype.*js?.*");
-		excludeFilenamePatterns.add(".*scriptaculous.*.js?.*");
-		excludeFilenamePatterns.add(".*mootools.js?.*");
-		excludeFilenamePatterns.add(".*dojo.xd.js?.*");
-		excludeFilenamePatterns.add(".*yuiloader.js?.*");
-		excludeFilenamePatterns.add(".*google.*");
+		excludeFilenamePatterns.addPattern(".*jquery[-0-9.]*.js?.*");
+		excludeFilenamePatterns.addPattern(".*jquery.*.js?.*");
+		excludeFilenamePatterns.addPattern(".*prototype.*js?.*");
+		excludeFilenamePatterns.addPattern(".*scriptaculous.*.js?.*");
+		excludeFilenamePatterns.addPattern(".*mootools.js?.*");
+		excludeFilenamePatterns.addPattern(".*dojo.xd.js?.*");
+		excludeFilenamePatterns.addPattern(".*yuiloader.js?.*");
+		excludeFilenamePatterns.addPattern(".*google.*");
 		//excludeFilenamePatterns.add(".*min.*.js?.*");
-		excludeFilenamePatterns.add(".*pack.*.js?.*");
-		excludeFilenamePatterns.add(".*compressed.*.js?.*");
-		excludeFilenamePatterns.add(".*rpc.*.js?.*");
-		excludeFilenamePatterns.add(".*o9dKSTNLPEg.*.js?.*");
-		excludeFilenamePatterns.add(".*gdn6pnx.*.js?.*");
-		excludeFilenamePatterns.add(".*show_ads.*.js?.*");
-		excludeFilenamePatterns.add(".*ga.*.js?.*");
+		excludeFilenamePatterns.addPattern(".*pack.*.js?.*");
+		excludeFilenamePatterns.addPattern(".*compressed.*.js?.*");
+		excludeFilenamePatterns.addPattern(".*rpc.*.js?.*");
+		excludeFilenamePatterns.addPattern(".*o9dKSTNLPEg.*.js?.*");
+		excludeFilenamePatterns.addPattern(".*gdn6pnx.*.js?.*");
+		excludeFilenamePatterns.addPattern(".*show_ads.*.js?.*");
+		excludeFilenamePatterns.addPattern(".*ga.*.js?.*");
 
 		//exclude list for tudu
-		excludeFilenamePatterns.add(".*builder.js");
-		excludeFilenamePatterns.add(".*controls.js");
-		excludeFilenamePatterns.add(".*dragdrop.js");
-		excludeFilenamePatterns.add(".*effects.js");
-		excludeFilenamePatterns.add(".*prototype.js");
-		excludeFilenamePatterns.add(".*scriptaculous.js");
-		excludeFilenamePatterns.add(".*slider.js");
-		excludeFilenamePatterns.add(".*unittest.js");
-		excludeFilenamePatterns.add(".*engine.js");
-		excludeFilenamePatterns.add(".*util.js");
+		excludeFilenamePatterns.addPattern(".*builder.js");
+		excludeFilenamePatterns.addPattern(".*controls.js");
+		excludeFilenamePatterns.addPattern(".*dragdrop.js");
+		excludeFilenamePatterns.addPattern(".*effects.js");
+		excludeFilenamePatterns.addPattern(".*prototype.js");
+		excludeFilenamePatterns.addPattern(".*scriptaculous.js");
+		excludeFilenamePatterns.addPattern(".*slider.js");
+		excludeFilenamePatterns.addPattern(".*unittest.js");
+		excludeFilenamePatterns.addPattern(".*engine.js");
+		excludeFilenamePatterns.addPattern(".*util.js");
 		
 		//exclude for collegesvis
-		excludeFilenamePatterns.add(".*raphael.min.js");
+		excludeFilenamePatterns.addPattern(".*raphael.min.js");
+	}
+
+	/**
+	 * @return The filter with the patterns of the scripts that are not modified.
+	 */
+	public UrlFilter getExcludeFilter() {
+		return excludeFilenamePatterns;
+	}
+
+	/**
+	 * Set the cache used to avoid instrumenting the same script again, for example when the index
+	 * page is reloaded for backtracking. Use an {@link InstrumentationCache} with a directory to
+	 * start repeated crawls of the same application warm.
+	 * 
+	 * @param cache
+	 *            The cache to use, or null to disable caching.
+	 */
+	public void setInstrumentationCache(InstrumentationCache cache) {
+		instrumentationCache = cache;
+	}
+
+	/**
+	 * Write the instrumented code of every modified script into a file named after the script with
+	 * a .txt extension, in the working directory. Off by default.
+	 * 
+	 * @param write
+	 *            Whether to write the instrumented code.
+	 */
+	public void setWriteInstrumentedCode(boolean write) {
+		writeInstrumentedCode = write;
+	}
+
+	/**
+	 * Set which code gets an execution counter. A coarser granularity adds fewer counters, so the
+	 * instrumented scripts are smaller and run faster, and the coverage is reported in functions or
+	 * basic blocks instead of lines. Statement granularity is the default.
+	 * 
+	 * @param granularity
+	 *            The granularity of the instrumentation.
+	 */
+	public void setGranularity(Granularity granularity) {
+		modifier.setGranularity(granularity);
+		coverageGranularity = granularity;
+	}
+
+	/**
+	 * @return the granularity the scripts are instrumented with, used to report the coverage
+	 */
+	public static Granularity getGranularity() {
+		return coverageGranularity;
+	}
+
+	/**
+	 * Inject the JSNose runtime agent into every html page, before the scripts of the page. The
+	 * agent records the globals and objects of the application while it runs, so the crawler gets
+	 * them with one call per state instead of probing the page. Disabled by default.
+	 * 
+	 * @param inject
+	 *            true to inject the agent.
+	 */
+	public void setRuntimeAgent(boolean inject) {
+		injectRuntimeAgent = inject;
+	}
+
+	/**
+	 * @return the code of the runtime agent, read once, or null if it could not be read.
+	 */
+	private static String getRuntimeAgent() {
+		if (runtimeAgent == null) {
+			InputStream in = JSModifyProxyPlugin.class.getResourceAsStream(RUNTIME_AGENT_RESOURCE);
+			if (in == null) {
+				LOGGER.warn("Could not find " + RUNTIME_AGENT_RESOURCE);
+				return null;
+			}
+			try {
+				runtimeAgent = IOUtils.toString(in, "UTF-8");
+			} catch (IOException e) {
+				LOGGER.warn("Could not read " + RUNTIME_AGENT_RESOURCE + ": " + e.getMessage());
+			} finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+					LOGGER.warn("Could not close " + RUNTIME_AGENT_RESOURCE);
+				}
+			}
+		}
+		return runtimeAgent;
+	}
+
+	/**
+	 * Add the runtime agent as the first script of the page.
+	 * 
+	 * @param dom
+	 *            The page.
+	 * @return true if the agent was added.
+	 */
+	private boolean injectRuntimeAgent(Document dom) {
+		String agent = getRuntimeAgent();
+		if (agent == null) {
+			return false;
+		}
+		Node parent;
+		Node before;
+		NodeList heads = dom.getElementsByTagName("head");
+		NodeList scripts = dom.getElementsByTagName("script");
+		if (heads.getLength() > 0) {
+			parent = heads.item(0);
+			before = parent.getFirstChild();
+		} else if (scripts.getLength() > 0) {
+			before = scripts.item(0);
+			parent = before.getParentNode();
+		} else {
+			return false;
+		}
+		Element script = dom.createElement("script");
+		script.setAttribute("type", "text/javascript");
+		script.appendChild(dom.createTextNode(agent));
+		parent.insertBefore(script, before);
+		return true;
+	}
+
+	/**
+	 * Set the fingerprints of the libraries that should not be modified, also when they are
+	 * bundled or renamed.
+	 * 
+	 * @param fingerprints
+	 *            The known libraries, or null to exclude scripts by their URL only.
+	 */
+	public void setLibraryFingerprints(LibraryFingerprints fingerprints) {
+		libraryFingerprints = fingerprints;
 	}
 
 	@Override
@@ -175,12 +361,10 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 	
 
 	private boolean shouldModify(String name) {
-		/* try all patterns and if 1 matches, return false */
-		for (String pattern : excludeFilenamePatterns) {
-			if (name.matches(pattern)) {
-				LOGGER.info("Not modifying response for " + name);
-				return false;
-			}
+		/* if one of the patterns matches, return false */
+		if (excludeFilenamePatterns.matches(name)) {
+			LOGGER.info("Not modifying response for " + name);
+			return false;
 		}
 
 		LOGGER.info("Modifying response for " + name);
@@ -192,40 +376,67 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 	 * This method tries to add instrumentation code to the input it receives. The original input is
 	 * returned if we can't parse the input correctly (which might have to do with the fact that the
 	 * input is no JavaScript because the server uses a wrong Content-Type header for JSON data)
+	 * This method is called concurrently by the proxy threads, so every script is modified by its
+	 * own modifier. The smell analysis of the script is left to the {@link SmellAnalysisQueue}.
 	 * 
 	 * @param input
 	 *            The JavaScript to be modified
 	 * @param scopename
 	 *            Name of the current scope (filename mostly)
+	 * @param pageUrl
+	 *            URL of the page the script belongs to, or null if it is not known
 	 * @return The modified JavaScript
 	 */
-	private synchronized String modifyJS(String input, String scopename) {
+	private String modifyJS(String input, String scopename, String pageUrl) {
 		if (!shouldModify(scopename)) {
 			return input;
 		}
-		try {
 
-			String jsName = getJSName(scopename);
-			
-			SmellDetector.setJSName(jsName);
+		String jsName = getJSName(scopename);
 
-	
-			/**
-			 * Analysing inline javascript smell
-			 */
-			if (scopename.contains("script")){
-				//System.out.println("scopename : " + getJSName(scopename));
-				SmellDetector.analyseCoupling(jsName, input, jsInTag);
-			}else if (foundTagsWithJS){
-				SmellDetector.analyseCoupling("main_html", "", jsInTag);
+		/**
+		 * Analysing inline javascript smell
+		 */
+		if (scopename.contains("script")){
+			//System.out.println("scopename : " + getJSName(scopename));
+			SmellDetector.analyseCoupling(jsName, input, jsInTag);
+		}else if (foundTagsWithJS){
+			SmellDetector.analyseCoupling("main_html", "", jsInTag);
+		}
+
+		String cacheKey = null;
+		if (instrumentationCache != null) {
+			cacheKey = instrumentationCache.key(input, scopename, modifier);
+			String cached = instrumentationCache.get(cacheKey);
+			if (cached != null) {
+				/* instrumented before, it still needs to be analysed if it came from the on-disk cache */
+				if (SmellDetector.markAnalysed(cacheKey)) {
+					SmellAnalysisQueue.submit(jsName, input, scopename, pageUrl);
+				}
+				CounterLocations locations = instrumentationCache.getLocations(cacheKey);
+				if (locations != null) {
+					counterLocations.put(jsName, locations);
+				}
+				addModifiedJS(jsName);
+				return cached;
 			}
+		}
 
-			
+		/* a known library is neither parsed, instrumented nor analysed */
+		if (libraryFingerprints != null) {
+			String library = libraryFingerprints.match(input);
+			if (library != null) {
+				LOGGER.info("Not modifying response for " + scopename + ", it is " + library);
+				return input;
+			}
+		}
+
+		/* initialize JavaScript context */
+		Context cx = Context.enter();
+		try {
 			
 			AstRoot ast = null;
 
-			/* initialize JavaScript context */
-			Context cx = Context.enter();
 			//cx.setErrorReporter(new ConsoleErrorReporter());
 
 			/* create a new parser */
@@ -236,16 +447,21 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 
 			/* parse some script and save it in AST */
 			ast = rhinoParser.parse(new String(input), scopename, 0);
+
+			/* analyse the original code for smells in the background */
+			if (cacheKey == null || SmellDetector.markAnalysed(cacheKey)) {
+				SmellAnalysisQueue.submit(jsName, input, scopename, pageUrl);
+			}
 			
 			//System.out.println(ast.debugPrint());
 			
-			//System.out.println(makeTreeString(ast.debugPrint()));
+			//System.out.println(makeTreeString(ast));
 			
-			//LblTree lt1 = LblTree.fromString(makeTreeString(ast.debugPrint())); 
+			//LblTree lt1 = LblTree.fromString(makeTreeString(ast)); 
 			
 			//lt1.prettyPrint();
 			
-			//makeTreeString(ast.debugPrint());
+			//makeTreeString(ast);
 			
 			
 			/*Print out AST root to file*/
@@ -273,9 +489,13 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 			//System.out.println("AST BEFORE : ");
 			//System.out.println(ast.toSource());
 			
-			modifier.setScopeName(scopename);
+			JSASTModifier visitor = modifier.newInstance();
+			visitor.setGranularity(modifier.getGranularity());
 
-			modifier.start();
+			visitor.setScopeName(scopename);
+			visitor.setSource(input);
+
+			visitor.start();
 
 
 //			System.out.println("PRINTING AST ROOT");
@@ -287,56 +507,61 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 //			}
 
 			
-			/* recurse through AST and statically analayze the code for smells*/
-			ast.visit(modifier);
-
-			
-			SmellDetector.generateReport(false);
+			/* recurse through AST and instrument the code */
+			ast.visit(visitor);
 			
 
 			/*
 			 *  Printing the instrumented code to a file
 			 */
-			try {
-				//System.out.println("printing ast " + ast.toSource());
-				File file = new File(jsName + ".txt");
-				if (!file.exists()) {
-					file.createNewFile();
+			if (writeInstrumentedCode) {
+				try {
+					//System.out.println("printing ast " + ast.toSource());
+					FileOutputStream fop = new FileOutputStream(new File(jsName + ".txt"));
+					try {
+						fop.write(ast.toSource().getBytes());
+					} finally {
+						fop.close();
+					}
+				}
+				catch (IOException ioe) {
+					LOGGER.info("Could not write the instrumented file into disk!");
 				}
-
-				FileOutputStream fop = new FileOutputStream(file);
-
-				fop.write(ast.toSource().getBytes());
-				fop.flush();
-				fop.close();
-			}
-			catch (IOException ioe) {
-				LOGGER.info("Could not write the instrumented file into disk!");
 			}
 
 
 			//if (htmlFound == true) {
-			modifier.finish(ast);
+			visitor.finish(ast);
 
 			//Amin: add to the list of instrumented JS
 			//if (!modifiedJS.contains(modifier.getJSName()) && modifier.getJSName().endsWith("_js"))
-			if (!modifiedJS.contains(modifier.getJSName()))
-				modifiedJS.add(modifier.getJSName());
+			addModifiedJS(visitor.getJSName());
 
 			htmlFound = false;
 			//}
 
-			/* clean up */
-			Context.exit();
-			
+			String instrumented = ast.toSource();
+			CounterLocations locations = visitor.getCounterLocations();
+			if (locations != null) {
+				counterLocations.put(visitor.getJSName(), locations);
+			}
+			if (cacheKey != null) {
+				instrumentationCache.put(cacheKey, instrumented);
+				if (locations != null) {
+					instrumentationCache.putLocations(cacheKey, locations);
+				}
+			}
 						
-			return ast.toSource();
+			return instrumented;
 		} catch (RhinoException re) {
 			System.err.println(re.getMessage());
 			LOGGER.warn("Unable to instrument. This might be a JSON response sent"
 			        + " with the wrong Content-Type or a syntax error.");
 		} catch (IllegalArgumentException iae) {
 			LOGGER.warn("Invalid operator exception catched. Not instrumenting code.");
+		} finally {
+			/* clean up */
+			Context.exit();
 		}
 		//LOGGER.warn("Here is the corresponding buffer: \n" + input + "\n");
 
@@ -345,120 +570,64 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 
 	
 	
-	// Amin: making a string representation for ast
-	private String makeTreeString(String astDebugFormat) {
-		String result = "";
-		String tempRead = "";
-		String objName = "";
-
-		int consecutiveGETPROP = 0;  // to count length of a message chain by counting GETPROPs
-		int spaceCount = 0, newDepth = 0, prevDepth = -1, openBrackets = 0;
-		for (int i=0; i<astDebugFormat.length(); i++){  //finding the next node (at any level)
-			if (astDebugFormat.charAt(i) == '\t'){		// found next element at position i
-				for (int j=i+1; j<astDebugFormat.length(); j++){  //finding the level
-					if (astDebugFormat.charAt(j) == ' ')
-						spaceCount++;
-					else{
-						newDepth = spaceCount/2;
-						spaceCount = 0;
-						for (int b=prevDepth-newDepth; b>=0 ; b--){ // adding "}" as much as depth change
-							result+="}";
-							openBrackets--;
-						}
-						result+="{";
-						openBrackets++;
-						while (astDebugFormat.charAt(j) != ' '){ // adding node type to the result string
-							tempRead+=astDebugFormat.charAt(j);
-							j++;
-						}
+	//Amin: add to the list of instrumented JS
+	private void addModifiedJS(String jsName) {
+		modifiedJS.addIfAbsent(jsName);
+	}
 
-					
-						if (tempRead.equals("NAME")){
-							// A NAME IS FOUND!
-							// read two numbers and then read the name
-							// TODO: this part is very messy! should be clean later
-							j++;
-							while (astDebugFormat.charAt(j) != ' ') // skipping numbers
-								j++;
-							j++;
-							while (astDebugFormat.charAt(j) != ' ') // skipping numbers
-								j++;
-							j++;
-							objName = "";
-							while (astDebugFormat.charAt(j) != '\n'){ // adding node type to the result string
-								objName+=astDebugFormat.charAt(j);
-								j++;
-							}
-							
-							//objName has the identifier name
-							
-						}
-						
-						result += tempRead;
-						tempRead="";
-						break;
-					}				
-				}
-				prevDepth = newDepth;
+	
+	// Amin: making a string representation for ast, in the bracket notation of LblTree such as {SCRIPT{EXPR_VOID{VAR}}}
+	private String makeTreeString(AstNode ast) {
+		final StringBuilder result = new StringBuilder();
+		final int rootDepth = ast.depth();
+		final int[] prevDepth = { -1 };
+
+		ast.visit(new NodeVisitor() {
+			@Override
+			public boolean visit(AstNode node) {
+				int newDepth = node.depth() - rootDepth;
+				for (int b=prevDepth[0]-newDepth; b>=0 ; b--) // adding "}" as much as depth change
+					result.append('}');
+				result.append('{').append(Token.typeToName(node.getType()));
+				prevDepth[0] = newDepth;
+				return true;
 			}
-		}
-		
-		
-		for (int i=0;i<openBrackets;i++)
-			result+="}";
+		});
+
+		for (int i=0;i<=prevDepth[0];i++)	// closing the nodes that are still open
+			result.append('}');
 		
 		System.out.println(result);
 		
-				
-		return result;
+		return result.toString();
 	}
 
 
 	
-	// Amin: making a string representation for ast
-	private void makeTree(String astDebugFormat) {
-		
-		Tree<String> t = new Tree<String>();
-		TreeNode<String> n = new TreeNode<String>();
-		n.setData("root");
-		t.setRootElement(n);
-
-		TreeNode<String> n2 = new TreeNode<String>();
-		n2.setData("ch1");
-		n.addChild(n2);
-		n.addChild(n2);
-		
-		System.out.println(t.toString());
-		
-		
-		String result = "";
-		int spaceCount = 0, newDepth = 0, prevDepth = -1, openBrackets = 0;
-		for (int i=0; i<astDebugFormat.length(); i++){  //finding the next node (at any level)
-			if (astDebugFormat.charAt(i) == '\t'){		// found next element at position i
-				for (int j=i+1; j<astDebugFormat.length(); j++){  //finding the level
-					if (astDebugFormat.charAt(j) == ' ')
-						spaceCount++;
-					else{
-						newDepth = spaceCount/2;
-						spaceCount = 0;
-						for (int b=prevDepth-newDepth; b>=0 ; b--){ // adding "}" as much as depth change
-							result+="}";
-							openBrackets--;
-						}
-						result+="{";
-						openBrackets++;
-						while (astDebugFormat.charAt(j) != ' '){ // adding node type to the result string
-							result+=astDebugFormat.charAt(j);
-							j++;
-						}
-						break;
-					}				
-				}
-				prevDepth = newDepth;
+	// Amin: making a tree of the node types of the ast
+	private Tree<String> makeTree(AstNode ast) {
+		final Tree<String> t = new Tree<String>();
+		final int rootDepth = ast.depth();
+		final List<TreeNode<String>> path = new ArrayList<TreeNode<String>>();	// the tree nodes from the root to the last visited node
+
+		ast.visit(new NodeVisitor() {
+			@Override
+			public boolean visit(AstNode node) {
+				int depth = node.depth() - rootDepth;
+				while (path.size() > depth)
+					path.remove(path.size()-1);
+				
+				TreeNode<String> n = new TreeNode<String>(Token.typeToName(node.getType()));
+				if (path.isEmpty())
+					t.setRootElement(n);
+				else
+					path.get(path.size()-1).addChild(n);
+				path.add(n);
+				return true;
 			}
-		}
-		
+		});
 		
+		return t;
 	}
 
 	
@@ -492,7 +661,9 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 
 		if (type != null && type.contains("javascript")) {
 			/* instrument the code if possible */
-			response.setContent(modifyJS(new String(response.getContent()), request.getURL().toString()).getBytes());
+			/* the page that loads a script is its referer */
+			response.setContent(modifyJS(new String(response.getContent()), request.getURL().toString(),
+			        request.getHeader("Referer")).getBytes());
 		} else if (type != null && type.contains("html")) {
 			if (response.getStatus().equals("200")) {  // if response is status 200, it is was a bad attempt
 				htmlFound = true;
@@ -502,14 +673,7 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 				
 				
 				/* Amin: finding event handlers */
-				// checking a, div, span, img, input, td
-				String[] tags = { "a", "div", "span", "img", "input", "td", "button"};  
-				
-				NodeList eventable = null;
-				for (int i=0; i<tags.length; i++){
-					eventable = dom.getElementsByTagName(tags[i]);
-					checkEventHandler(eventable);
-				}
+				SmellDetector.findJsInTags(dom, jsInTag);
 				
 				
 				
@@ -523,7 +687,8 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 					        .getTextContent().toLowerCase().contains("javascript"))) {
 						String content = nodes.item(i).getTextContent();
 						if (content.length() > 0) {
-							String js = modifyJS(content, request.getURL() + "script" + i);
+							String js = modifyJS(content, request.getURL() + "script" + i,
+							        request.getURL().toString());
 							nodes.item(i).setTextContent(js);
 							continue;
 						}
@@ -535,7 +700,8 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 					        .getTextContent().toLowerCase().contains("javascript"))) {
 						String content = nodes.item(i).getTextContent();
 						if (content.length() > 0) {
-							String js = modifyJS(content, request.getURL() + "script" + i);
+							String js = modifyJS(content, request.getURL() + "script" + i,
+							        request.getURL().toString());
 							nodes.item(i).setTextContent(js);
 						}
 
@@ -549,8 +715,11 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 				}
 				
 				
+				/* Amin: the agent is added after the scripts are modified, so it is not instrumented itself */
+				boolean agentInjected = injectRuntimeAgent && injectRuntimeAgent(dom);
+
 				/* only modify content when we did modify anything */
-				if (nodes.getLength() > 0) {
+				if (nodes.getLength() > 0 || agentInjected) {
 					/* set the new content */
 					response.setContent(Helper.getDocumentToByteArray(dom));
 				}
@@ -562,33 +731,6 @@ public class JSModifyProxyPlugin extends ProxyPlugin {
 		return response;
 	}
 
-	// Amin
-	private void checkEventHandler(NodeList eventable) {
-
-		String[] attributes = { "onclick",	"ondblclick", "onmouseover", "onmouseup", "onmousedown", "onmouseout", "onkeydown", "onkeypress" };  
-
-		Node foundAttribute = null;
-		for (int i = 0; i < attributes.length; i++) {
-			for (int j = 0; j < eventable.getLength(); j++) {
-				foundAttribute = eventable.item(j).getAttributes().getNamedItem(attributes[i]);
-				if ((foundAttribute != null && foundAttribute.getTextContent() != null)){
-					String tag = eventable.item(j).getNodeName() + " ";
-					Node c = eventable.item(j).getAttributes().getNamedItem("class");
-					if (c!=null)
-						tag += c.toString()+ " ";
-					tag += foundAttribute.toString();
-					//System.out.println("tag: " + tag);
-					jsInTag.add(tag);
-					//System.out.println("jsInTag.size(): " + jsInTag.size());
-				}
-
-
-			}				
-		}
-
-
-	}
-
 	/**
 	 * WebScarab plugin that adds instrumentation code.
 	 * 
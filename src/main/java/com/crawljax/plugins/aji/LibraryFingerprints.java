@@ -0,0 +1,184 @@
+package com.crawljax.plugins.aji;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Recognizes known JavaScript libraries by the content of a script instead of its URL, so renamed
+ * or self-hosted copies of e.g. jQuery are not parsed, instrumented and analysed for smells. A
+ * script matches if the hash of its content, or of its content with every run of whitespace
+ * replaced by a single space, is a known fingerprint. Matching uses whole-file hashes, so a
+ * library that is concatenated with other scripts into a bundle, or changed in any other way than
+ * its whitespace, is not detected. The default fingerprints are read from
+ * library-fingerprints.properties on the class path.
+ */
+public class LibraryFingerprints {
+
+	private static final Logger LOGGER = Logger.getLogger(LibraryFingerprints.class.getName());
+
+	private static final String DEFAULT_RESOURCE = "/library-fingerprints.properties";
+
+	private static volatile LibraryFingerprints defaults = null;
+
+	/**
+	 * Library names by the hashes of their content and normalized content.
+	 */
+	private final Map<String, String> libraries = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @return the fingerprints bundled with JSNose, read once.
+	 */
+	public static LibraryFingerprints getDefault() {
+		if (defaults == null) {
+			synchronized (LibraryFingerprints.class) {
+				if (defaults == null) {
+					LibraryFingerprints fingerprints = new LibraryFingerprints();
+					InputStream in = LibraryFingerprints.class.getResourceAsStream(DEFAULT_RESOURCE);
+					if (in == null) {
+						LOGGER.warn("Could not find " + DEFAULT_RESOURCE);
+					} else {
+						try {
+							fingerprints.load(in);
+						} catch (IOException e) {
+							LOGGER.warn("Could not read " + DEFAULT_RESOURCE + ": " + e.getMessage());
+						} finally {
+							try {
+								in.close();
+							} catch (IOException e) {
+								LOGGER.warn("Could not close " + DEFAULT_RESOURCE);
+							}
+						}
+					}
+					defaults = fingerprints;
+				}
+			}
+		}
+		return defaults;
+	}
+
+	/**
+	 * Add fingerprints from a properties file that maps hashes to library names.
+	 * 
+	 * @param in
+	 *            The properties.
+	 * @throws IOException
+	 *             if the properties could not be read.
+	 */
+	public void load(InputStream in) throws IOException {
+		Properties properties = new Properties();
+		properties.load(in);
+		for (String hash : properties.stringPropertyNames()) {
+			libraries.put(hash.toLowerCase(), properties.getProperty(hash));
+		}
+	}
+
+	/**
+	 * Add the fingerprints of a library.
+	 * 
+	 * @param script
+	 *            The code of the library.
+	 * @param library
+	 *            Name of the library, e.g. jquery-1.7.2.min.js.
+	 */
+	public void addLibrary(String script, String library) {
+		libraries.put(InstrumentationCache.hash(script), library);
+		libraries.put(InstrumentationCache.hash(normalize(script)), library);
+	}
+
+	/**
+	 * @param script
+	 *            The JavaScript code.
+	 * @return the name of the library the script is a copy of, or null if it is not a known library.
+	 */
+	public String match(String script) {
+		if (libraries.isEmpty()) {
+			return null;
+		}
+		String library = libraries.get(InstrumentationCache.hash(script));
+		if (library == null) {
+			library = libraries.get(InstrumentationCache.hash(normalize(script)));
+		}
+		return library;
+	}
+
+	/**
+	 * @return The number of fingerprints.
+	 */
+	public int size() {
+		return libraries.size();
+	}
+
+	/**
+	 * Print the fingerprints of library files in the format of library-fingerprints.properties, to
+	 * extend the bundled list, see src/main/scripts/fingerprint-libraries.sh. With -verify as the
+	 * first argument nothing is printed; instead every file has to match the bundled fingerprints
+	 * under its own name.
+	 * 
+	 * @param args
+	 *            [-verify] followed by the library files, named like the library, e.g.
+	 *            jquery-1.7.2.min.js.
+	 * @throws IOException
+	 *             if a file could not be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean verify = args.length > 0 && "-verify".equals(args[0]);
+		int mismatches = 0;
+		for (int i = verify ? 1 : 0; i < args.length; i++) {
+			File file = new File(args[i]);
+			String library = file.getName();
+			String script = FileUtils.readFileToString(file, "UTF-8");
+			if (verify) {
+				String known = getDefault().libraries.get(InstrumentationCache.hash(script));
+				String knownNormalized =
+				        getDefault().libraries.get(InstrumentationCache.hash(normalize(script)));
+				if (!library.equals(known) || !library.equals(knownNormalized)) {
+					System.err.println(library + " does not match its fingerprints (found " + known
+					        + ", " + knownNormalized + ")");
+					mismatches++;
+				}
+			} else {
+				String hash = InstrumentationCache.hash(script);
+				String normalizedHash = InstrumentationCache.hash(normalize(script));
+				System.out.println("# " + library);
+				System.out.println(hash + "=" + library);
+				if (!normalizedHash.equals(hash)) {
+					System.out.println(normalizedHash + "=" + library);
+				}
+			}
+		}
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param script
+	 *            The JavaScript code.
+	 * @return the code with every run of whitespace replaced by a single space and no leading or
+	 *         trailing whitespace.
+	 */
+	static String normalize(String script) {
+		StringBuilder normalized = new StringBuilder(script.length());
+		boolean whitespace = false;
+		for (int i = 0; i < script.length(); i++) {
+			char c = script.charAt(i);
+			if (Character.isWhitespace(c)) {
+				whitespace = true;
+			} else {
+				if (whitespace && normalized.length() > 0) {
+					normalized.append(' ');
+				}
+				whitespace = false;
+				normalized.append(c);
+			}
+		}
+		return normalized.toString();
+	}
+}
@@ -0,0 +1,97 @@
+package com.crawljax.plugins.aji;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Decides if a URL matches one of a list of regular expressions, for example the scripts that
+ * should not be instrumented. The expressions are compiled once into a single pattern and the
+ * decision for every URL is cached, since the same URLs are checked over and over during a crawl.
+ */
+public class UrlFilter {
+
+	/**
+	 * The cache is cleared when it grows beyond this number of URLs.
+	 */
+	private static final int MAX_CACHED_URLS = 10000;
+
+	private final List<String> patterns = new ArrayList<String>();
+
+	private final Map<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * All patterns combined, null if there are no patterns.
+	 */
+	private volatile Pattern combined = null;
+
+	/**
+	 * Construct without patterns.
+	 */
+	public UrlFilter() {
+	}
+
+	/**
+	 * @param patterns
+	 *            List with the regular expressions to match.
+	 */
+	public UrlFilter(List<String> patterns) {
+		for (String pattern : patterns) {
+			addPattern(pattern);
+		}
+	}
+
+	/**
+	 * @param pattern
+	 *            A regular expression that should match the whole URL.
+	 */
+	public synchronized void addPattern(String pattern) {
+		patterns.add(pattern);
+
+		StringBuilder regex = new StringBuilder();
+		for (String p : patterns) {
+			if (regex.length() > 0) {
+				regex.append('|');
+			}
+			regex.append("(?:").append(p).append(')');
+		}
+		combined = Pattern.compile(regex.toString());
+		decisions.clear();
+	}
+
+	/**
+	 * @return The regular expressions of this filter.
+	 */
+	public synchronized List<String> getPatterns() {
+		return Collections.unmodifiableList(new ArrayList<String>(patterns));
+	}
+
+	/**
+	 * @param url
+	 *            The URL to check.
+	 * @return true if one of the patterns matches the whole URL.
+	 */
+	public boolean matches(String url) {
+		Boolean decision = decisions.get(url);
+		if (decision != null) {
+			return decision;
+		}
+
+		Pattern pattern = combined;
+		decision = pattern != null && pattern.matcher(url).matches();
+
+		if (decisions.size() >= MAX_CACHED_URLS) {
+			decisions.clear();
+		}
+		decisions.put(url, decision);
+		if (pattern != combined) {
+			/* a pattern was added in the meantime */
+			decisions.remove(url);
+		}
+
+		return decision;
+	}
+}
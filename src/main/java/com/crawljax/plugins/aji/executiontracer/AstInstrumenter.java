@@ -22,6 +22,7 @@ package com.crawljax.plugins.aji.executiontracer;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
@@ -30,6 +31,7 @@ import org.mozilla.javascript.Token;
 import org.mozilla.javascript.ast.AstNode;
 import org.mozilla.javascript.ast.AstRoot;
 import org.mozilla.javascript.ast.FunctionNode;
+import org.mozilla.javascript.ast.NodeVisitor;
 import org.mozilla.javascript.ast.Scope;
 import org.mozilla.javascript.ast.Symbol;
 
@@ -46,10 +48,36 @@ import com.crawljax.util.Helper;
  */
 public class AstInstrumenter extends JSASTModifier {
 
+	/**
+	 * Name of the object in the page that keeps the counter arrays of all files by jsName.
+	 */
+	public static final String COUNTER_REGISTRY = "__jsnose_coverage";
+
 	private int instrumentedLinesCounter = 0;
+
+	private final boolean typedCounters;
+
+	private CounterLocations counterLocations = new CounterLocations();
+
+	/**
+	 * Absolute positions of the nodes of the original code, taken before the code is changed since
+	 * nodes that get a new block around them lose their position.
+	 */
+	private Map<AstNode, Integer> positions = null;
 	
 	public AstInstrumenter() {
+		this(false);
+	}
+
+	/**
+	 * @param typedCounters
+	 *            Whether the counters are kept in a preallocated Uint32Array, falling back to a
+	 *            plain array in browsers without typed arrays, and registered in
+	 *            window.__jsnose_coverage so they are harvested with one copy per file.
+	 */
+	public AstInstrumenter(boolean typedCounters) {
 		super();
+		this.typedCounters = typedCounters;
 	}
 
 	/**
@@ -59,9 +87,18 @@ public class AstInstrumenter extends JSASTModifier {
 	 */
 	private AstNode jsLineExectutionCounter() {
 
-		String code = "var " + jsName + "_exec_counter = new Array(); " +
-				"for (var i=0;i<" + instrumentedLinesCounter + ";i++)" +
-				"if("+jsName + "_exec_counter[i]== undefined || "+jsName + "_exec_counter[i]== null) "+jsName + "_exec_counter[i]=0;";
+		String counter = jsName + "_exec_counter";
+		String code;
+		if (typedCounters) {
+			// Amin: typed arrays are created filled with 0, the loop is only needed for old browsers
+			code = "var " + counter + " = typeof Uint32Array != 'undefined' ? new Uint32Array(" + instrumentedLinesCounter + ") : [];" +
+					"if (!" + counter + ".subarray) for (var i=0;i<" + instrumentedLinesCounter + ";i++) " + counter + "[i]=0;" +
+					"(window." + COUNTER_REGISTRY + " || (window." + COUNTER_REGISTRY + " = {}))['" + jsName + "'] = " + counter + ";";
+		} else {
+			code = "var " + counter + " = new Array(); " +
+					"for (var i=0;i<" + instrumentedLinesCounter + ";i++)" +
+					"if("+counter + "[i]== undefined || "+counter + "[i]== null) "+counter + "[i]=0;";
+		}
 		
 		// Amin: instrumentedLinesCounter resets to 0 for the next codes
 		instrumentedLinesCounter = 0;
@@ -70,25 +107,70 @@ public class AstInstrumenter extends JSASTModifier {
 		return parse(code);
 	}
 
+	/**
+	 * Keeping the line, column and function of the code counted by the next counter.
+	 */
+	private void addCounterLocation() {
+		AstNode node = getInstrumentedNode();
+		if (node == null) {
+			counterLocations.add(0, 0, "");
+			return;
+		}
+
+		int column = 0;
+		if (source != null) {
+			if (positions == null) {
+				positions = getPositions(node.getAstRoot());
+			}
+			Integer position = positions.get(node);
+			if (position != null) {
+				column = position - source.lastIndexOf('\n', position - 1);
+			}
+		}
+
+		FunctionNode function =
+		        node instanceof FunctionNode ? (FunctionNode) node : node.getEnclosingFunction();
+		counterLocations.add(node.getLineno() + 1, column,
+		        function == null ? "" : getFunctionName(function));
+	}
+
+	private static Map<AstNode, Integer> getPositions(AstRoot root) {
+		final Map<AstNode, Integer> positions = new IdentityHashMap<AstNode, Integer>();
+		if (root == null) {
+			return positions;
+		}
+		root.visit(new NodeVisitor() {
+			@Override
+			public boolean visit(AstNode node) {
+				Integer parent = positions.get(node.getParent());
+				positions.put(node, (parent == null ? 0 : parent) + node.getPosition());
+				return true;
+			}
+		});
+		return positions;
+	}
+
+	@Override
+	public CounterLocations getCounterLocations() {
+		return counterLocations;
+	}
+
 	@Override // instrumenting within a function
 	protected AstNode createNode(FunctionNode function, String postfix, int lineNo) {
-		String name = getFunctionName(function);
+		addCounterLocation();
 
 		// Amin: Adds instrumentation code
-		String code = jsName + "_exec_counter[" + Integer.toString(instrumentedLinesCounter) + "]++;";
-		instrumentedLinesCounter++;
-		
-		return parse(code);
+		return CounterNodeFactory.createCounterIncrement(jsName + "_exec_counter",
+		        instrumentedLinesCounter++);
 	}
 
 	@Override// instrumenting out of function
 	protected AstNode createNode(AstRoot root, String postfix, int lineNo, int rootCount) {
+		addCounterLocation();
 
 		// Amin: Adds instrumentation code
-		 String code = jsName + "_exec_counter[" + Integer.toString(instrumentedLinesCounter) + "]++;";
-		instrumentedLinesCounter++;
-
-		return parse(code);
+		return CounterNodeFactory.createCounterIncrement(jsName + "_exec_counter",
+		        instrumentedLinesCounter++);
 	}
 
 	@Override
@@ -103,5 +185,17 @@ public class AstInstrumenter extends JSASTModifier {
 	public void start() {
 		// Amin: just to be sure that index start from 0
 		instrumentedLinesCounter = 0;
+		counterLocations = new CounterLocations();
+		positions = null;
 	}	
+
+	@Override
+	public JSASTModifier newInstance() {
+		return new AstInstrumenter(typedCounters);
+	}
+
+	@Override
+	public String getInstrumentationKey() {
+		return super.getInstrumentationKey() + (typedCounters ? ":typed" : "");
+	}
 }
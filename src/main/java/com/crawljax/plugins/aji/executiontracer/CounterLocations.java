@@ -0,0 +1,102 @@
+package com.crawljax.plugins.aji.executiontracer;
+
+import java.util.Arrays;
+
+/**
+ * Source locations of the execution counters of one instrumented file. For every counter index it
+ * keeps the line and column (both starting at 1) of the counted code and the name of the function
+ * it is in, so coverage reports and dead code detection can refer to the original code instead of
+ * counter indices. The table is written as one line per counter:
+ *
+ * <pre>
+ * line TAB column TAB function
+ * </pre>
+ *
+ * where the function is empty for code outside functions.
+ */
+public class CounterLocations {
+
+	private int[] lines = new int[64];
+	private int[] columns = new int[64];
+	private String[] functions = new String[64];
+	private int size = 0;
+
+	/**
+	 * Add the location of the next counter.
+	 *
+	 * @param line
+	 *            Line of the counted code.
+	 * @param column
+	 *            Column of the counted code, 0 if unknown.
+	 * @param function
+	 *            Name of the enclosing function, empty outside functions.
+	 */
+	public void add(int line, int column, String function) {
+		if (size == lines.length) {
+			lines = Arrays.copyOf(lines, size * 2);
+			columns = Arrays.copyOf(columns, size * 2);
+			functions = Arrays.copyOf(functions, size * 2);
+		}
+		lines[size] = line;
+		columns[size] = column;
+		functions[size] = function;
+		size++;
+	}
+
+	/**
+	 * @return the number of counters
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getLine(int index) {
+		return lines[index];
+	}
+
+	public int getColumn(int index) {
+		return columns[index];
+	}
+
+	public String getFunction(int index) {
+		return functions[index];
+	}
+
+	/**
+	 * @return the table in the format described above
+	 */
+	public String format() {
+		StringBuilder table = new StringBuilder(size * 16);
+		for (int i = 0; i < size; i++) {
+			table.append(lines[i]).append('\t').append(columns[i]).append('\t').append(functions[i])
+			        .append('\n');
+		}
+		return table.toString();
+	}
+
+	/**
+	 * @param table
+	 *            A table written by {@link #format()}.
+	 * @return the locations in the table
+	 * @throws NumberFormatException
+	 *             if the table is not valid.
+	 */
+	public static CounterLocations parse(String table) {
+		CounterLocations locations = new CounterLocations();
+		int start = 0;
+		while (start < table.length()) {
+			int end = table.indexOf('\n', start);
+			if (end == -1) {
+				end = table.length();
+			}
+			String[] fields = table.substring(start, end).split("\t", -1);
+			if (fields.length != 3) {
+				throw new NumberFormatException("Invalid counter location: "
+				        + table.substring(start, end));
+			}
+			locations.add(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), fields[2]);
+			start = end + 1;
+		}
+		return locations;
+	}
+}
@@ -0,0 +1,45 @@
+package com.crawljax.plugins.aji.executiontracer;
+
+import org.mozilla.javascript.Token;
+import org.mozilla.javascript.ast.AstNode;
+import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.ElementGet;
+import org.mozilla.javascript.ast.ExpressionStatement;
+import org.mozilla.javascript.ast.Name;
+import org.mozilla.javascript.ast.NumberLiteral;
+import org.mozilla.javascript.ast.UnaryExpression;
+
+/**
+ * Builds the execution counter statements that are added by the {@link AstInstrumenter}. The
+ * nodes are constructed directly instead of parsing a piece of source code for every instrumented
+ * statement, which made instrumentation of large scripts very slow.
+ */
+public final class CounterNodeFactory {
+
+	private CounterNodeFactory() {
+
+	}
+
+	/**
+	 * Create the statement <code>counterName[index]++;</code>. Like a parsed piece of code, the
+	 * statement is wrapped in an AstRoot without source name, which tells the visitor that this is
+	 * instrumentation code that should not be instrumented again.
+	 *
+	 * @param counterName
+	 *            Name of the execution counter array.
+	 * @param index
+	 *            Index of the instrumented line in the array.
+	 * @return The new node.
+	 */
+	public static AstNode createCounterIncrement(String counterName, int index) {
+		ElementGet counter =
+		        new ElementGet(new Name(0, counterName), new NumberLiteral(0,
+		                Integer.toString(index), index));
+
+		AstRoot root = new AstRoot();
+		root.addChild(new ExpressionStatement(new UnaryExpression(Token.INC, 0, counter, true),
+		        true));
+
+		return root;
+	}
+}
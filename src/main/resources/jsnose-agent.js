@@ -0,0 +1,177 @@
+/*
+ * JSNose runtime agent, injected by JSModifyProxyPlugin before the scripts of a page. It records
+ * the global variables and the properties of global objects of the application as they are
+ * defined, after the page is loaded and after every timer and user event, and keeps them in a
+ * buffer. The crawler drains the buffer with a single call per state:
+ *
+ *   window.__jsnose_agent.drain(candidates)
+ *
+ * which returns the recorded changes as a JSON string in the format of DynamicSmellProbe with
+ * "agent":true added, and empties the buffer. Names of the candidates with a dot (e.g. a.b) are
+ * resolved when the buffer is drained.
+ */
+(function (window) {
+	if (window.__jsnose_agent) {
+		return;
+	}
+
+	var hasOwn = Object.prototype.hasOwnProperty;
+	var setTimeoutOriginal = window.setTimeout;
+	var setIntervalOriginal = window.setInterval;
+
+	// properties of window before the application runs are not globals of the application
+	var ignored = {};
+	for (var property in window) {
+		ignored[property] = true;
+	}
+
+	var knownGlobals = {};
+	var shapes = {};
+	var newGlobals = [];
+	var changedObjects = {};
+	var scheduled = false;
+
+	function isIgnored(name) {
+		return hasOwn.call(ignored, name) || name.indexOf('exec_counter') != -1
+				|| name.indexOf('__jsnose') == 0;
+	}
+
+	function quote(s) {
+		s = String(s);
+		var quoted = '"';
+		for (var i = 0; i < s.length; i++) {
+			var c = s.charAt(i), code = s.charCodeAt(i);
+			if (c == '"' || c == '\\') {
+				quoted += '\\' + c;
+			} else if (code < 32) {
+				quoted += '\\u' + ('000' + code.toString(16)).slice(-4);
+			} else {
+				quoted += c;
+			}
+		}
+		return quoted + '"';
+	}
+
+	function list(a) {
+		var quoted = [];
+		for (var i = 0; i < a.length; i++) {
+			quoted.push(quote(a[i]));
+		}
+		return '[' + quoted.join(',') + ']';
+	}
+
+	// keeping the properties of an object if they changed since they were last recorded
+	function record(name, o) {
+		var own = [], inherited = [];
+		for (var p in o) {
+			if (hasOwn.call(o, p)) {
+				own.push(p);
+			} else {
+				inherited.push(p);
+			}
+		}
+		var shape = own.join(',') + '|' + inherited.join(',');
+		if (shapes[name] !== shape) {
+			shapes[name] = shape;
+			changedObjects[name] = {own: own, inherited: inherited};
+		}
+	}
+
+	function scan() {
+		scheduled = false;
+		for (var property in window) {
+			try {
+				if (!hasOwn.call(window, property) || isIgnored(property)) {
+					continue;
+				}
+				var value = window[property];
+				if (typeof value === 'function') {
+					continue;
+				}
+				if (!hasOwn.call(knownGlobals, property)) {
+					knownGlobals[property] = true;
+					newGlobals.push(property);
+				}
+				if (typeof value === 'object') {
+					record(property, value);
+				}
+			} catch (e) {
+			}
+		}
+	}
+
+	// scanning once after the code that is running now, however many changes it makes
+	function scheduleScan() {
+		if (!scheduled) {
+			scheduled = true;
+			setTimeoutOriginal.call(window, scan, 0);
+		}
+	}
+
+	function wrap(callback) {
+		if (typeof callback !== 'function') {
+			return callback;
+		}
+		return function () {
+			try {
+				return callback.apply(this, arguments);
+			} finally {
+				scheduleScan();
+			}
+		};
+	}
+
+	window.setTimeout = function () {
+		arguments[0] = wrap(arguments[0]);
+		return setTimeoutOriginal.apply(window, arguments);
+	};
+	window.setInterval = function () {
+		arguments[0] = wrap(arguments[0]);
+		return setIntervalOriginal.apply(window, arguments);
+	};
+
+	// handlers are not wrapped, so removeEventListener keeps working; the scan runs after them
+	var events = ['load', 'DOMContentLoaded', 'click', 'dblclick', 'mouseover', 'change', 'keyup',
+			'submit'];
+	for (var i = 0; i < events.length; i++) {
+		if (window.addEventListener) {
+			window.addEventListener(events[i], scheduleScan, true);
+		} else if (window.attachEvent) {
+			window.attachEvent('on' + events[i].toLowerCase(), scheduleScan);
+		}
+	}
+
+	window.__jsnose_agent = {
+		drain: function (candidates) {
+			scan();
+			for (var i = 0; candidates && i < candidates.length; i++) {
+				if (candidates[i].indexOf('.') == -1) {
+					continue;
+				}
+				try {
+					var parts = candidates[i].split('.'), o = window;
+					for (var j = 0; j < parts.length; j++) {
+						o = o[parts[j]];
+					}
+					if (typeof o === 'object') {
+						record(candidates[i], o);
+					}
+				} catch (e) {
+				}
+			}
+
+			var objects = [];
+			for (var name in changedObjects) {
+				if (hasOwn.call(changedObjects, name)) {
+					objects.push('{"name":' + quote(name) + ',"own":' + list(changedObjects[name].own)
+							+ ',"inherited":' + list(changedObjects[name].inherited) + '}');
+				}
+			}
+			var result = '{"agent":true,"globals":' + list(newGlobals) + ',"objects":['
+					+ objects.join(',') + ']}';
+			newGlobals = [];
+			changedObjects = {};
+			return result;
+		}
+	};
+})(window);
@@ -0,0 +1,81 @@
+#!/bin/sh
+# Downloads the JavaScript libraries listed below and prints their fingerprints in the format of
+# src/main/resources/library-fingerprints.properties, see com.crawljax.plugins.aji.LibraryFingerprints.
+#
+#   mvn compile
+#   src/main/scripts/fingerprint-libraries.sh >> src/main/resources/library-fingerprints.properties
+#   src/main/scripts/fingerprint-libraries.sh -verify
+#
+# The second call adds the fingerprints of the libraries; remove the entries of the libraries that
+# are already in the file first. The third call downloads the libraries again and fails if one of
+# them does not match its bundled fingerprints. To support another library, add a line
+# "<file name> <url>" to LIBRARIES; the file name is the name the library is reported with.
+# Run from the project directory.
+
+LIBRARIES="
+jquery-1.4.4.js https://code.jquery.com/jquery-1.4.4.js
+jquery-1.4.4.min.js https://code.jquery.com/jquery-1.4.4.min.js
+jquery-1.5.2.js https://code.jquery.com/jquery-1.5.2.js
+jquery-1.5.2.min.js https://code.jquery.com/jquery-1.5.2.min.js
+jquery-1.6.4.js https://code.jquery.com/jquery-1.6.4.js
+jquery-1.6.4.min.js https://code.jquery.com/jquery-1.6.4.min.js
+jquery-1.7.2.js https://code.jquery.com/jquery-1.7.2.js
+jquery-1.7.2.min.js https://code.jquery.com/jquery-1.7.2.min.js
+jquery-1.8.3.js https://code.jquery.com/jquery-1.8.3.js
+jquery-1.8.3.min.js https://code.jquery.com/jquery-1.8.3.min.js
+jquery-1.9.1.js https://code.jquery.com/jquery-1.9.1.js
+jquery-1.9.1.min.js https://code.jquery.com/jquery-1.9.1.min.js
+jquery-1.10.2.js https://code.jquery.com/jquery-1.10.2.js
+jquery-1.10.2.min.js https://code.jquery.com/jquery-1.10.2.min.js
+jquery-1.11.3.js https://code.jquery.com/jquery-1.11.3.js
+jquery-1.11.3.min.js https://code.jquery.com/jquery-1.11.3.min.js
+jquery-1.12.4.js https://code.jquery.com/jquery-1.12.4.js
+jquery-1.12.4.min.js https://code.jquery.com/jquery-1.12.4.min.js
+jquery-2.0.3.js https://code.jquery.com/jquery-2.0.3.js
+jquery-2.0.3.min.js https://code.jquery.com/jquery-2.0.3.min.js
+jquery-2.1.4.js https://code.jquery.com/jquery-2.1.4.js
+jquery-2.1.4.min.js https://code.jquery.com/jquery-2.1.4.min.js
+jquery-2.2.4.js https://code.jquery.com/jquery-2.2.4.js
+jquery-2.2.4.min.js https://code.jquery.com/jquery-2.2.4.min.js
+prototype-1.6.1.0.js https://ajax.googleapis.com/ajax/libs/prototype/1.6.1.0/prototype.js
+prototype-1.7.0.0.js https://ajax.googleapis.com/ajax/libs/prototype/1.7.0.0/prototype.js
+prototype-1.7.1.0.js https://ajax.googleapis.com/ajax/libs/prototype/1.7.1.0/prototype.js
+prototype-1.7.3.0.js https://ajax.googleapis.com/ajax/libs/prototype/1.7.3.0/prototype.js
+scriptaculous-1.8.3.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.8.3/scriptaculous.js
+scriptaculous-1.8.3-builder.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.8.3/builder.js
+scriptaculous-1.8.3-controls.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.8.3/controls.js
+scriptaculous-1.8.3-dragdrop.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.8.3/dragdrop.js
+scriptaculous-1.8.3-effects.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.8.3/effects.js
+scriptaculous-1.8.3-slider.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.8.3/slider.js
+scriptaculous-1.8.3-sound.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.8.3/sound.js
+scriptaculous-1.9.0.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.9.0/scriptaculous.js
+scriptaculous-1.9.0-builder.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.9.0/builder.js
+scriptaculous-1.9.0-controls.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.9.0/controls.js
+scriptaculous-1.9.0-dragdrop.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.9.0/dragdrop.js
+scriptaculous-1.9.0-effects.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.9.0/effects.js
+scriptaculous-1.9.0-slider.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.9.0/slider.js
+scriptaculous-1.9.0-sound.js https://ajax.googleapis.com/ajax/libs/scriptaculous/1.9.0/sound.js
+mootools-1.2.5.min.js https://ajax.googleapis.com/ajax/libs/mootools/1.2.5/mootools-yui-compressed.js
+mootools-1.3.2.min.js https://ajax.googleapis.com/ajax/libs/mootools/1.3.2/mootools-yui-compressed.js
+mootools-1.4.5.min.js https://ajax.googleapis.com/ajax/libs/mootools/1.4.5/mootools-yui-compressed.js
+mootools-1.5.2.min.js https://ajax.googleapis.com/ajax/libs/mootools/1.5.2/mootools.min.js
+mootools-1.6.0.min.js https://ajax.googleapis.com/ajax/libs/mootools/1.6.0/mootools.min.js
+"
+
+set -e
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+
+FILES=""
+echo "$LIBRARIES" | while read NAME URL; do
+	if [ -n "$NAME" ]; then
+		curl -sSfL -o "$DIR/$NAME" "$URL" || { echo "Could not download $URL" >&2; exit 1; }
+	fi
+done
+for NAME in $(echo "$LIBRARIES" | awk '{ print $1 }'); do
+	FILES="$FILES $DIR/$NAME"
+done
+
+mvn -q dependency:build-classpath -Dmdep.outputFile="$DIR/classpath" >&2
+java -cp "target/classes:$(cat "$DIR/classpath")" com.crawljax.plugins.aji.LibraryFingerprints $1 $FILES
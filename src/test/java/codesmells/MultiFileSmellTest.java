@@ -0,0 +1,85 @@
+package codesmells;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the smell report of a fixture of several files, whose objects are used and extended
+ * across the files, with the report of the analysis before files were analysed into their own
+ * results. expected-smells.txt is the report of that analysis, which used one detector and one
+ * list of objects for all files of a crawl.
+ */
+public class MultiFileSmellTest {
+
+	private static final String FIXTURE = "/codesmells/multifile/";
+
+	// the order the files are loaded in, which the findings depend on
+	private static final String[] FILES = { "shapes.js", "circle.js", "app.js" };
+
+	@Before
+	public void reset() {
+		SmellDetector.reset();
+	}
+
+	@Test
+	public void sameReportAsBefore() throws IOException {
+		for (String file : FILES) {
+			SmellDetector.merge(SmellDetector.analyseScript(file.replace('.', '_'), read(file), file));
+		}
+		assertEquals(read("expected-smells.txt"), report());
+	}
+
+	@Test
+	public void batchAnalysisInFileOrder() throws Exception {
+		String[] sorted = FILES.clone();
+		Arrays.sort(sorted);
+		for (String file : sorted) {
+			SmellDetector.merge(SmellDetector.analyseScript(file.replace('.', '_'), read(file), file));
+		}
+		String expected = report();
+
+		BatchSmellAnalyzer.analyse(new File(getClass().getResource(FIXTURE).toURI()), 2);
+		assertEquals(expected, report());
+	}
+
+	private String read(String file) throws IOException {
+		InputStream in = getClass().getResourceAsStream(FIXTURE + file);
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the smells of the current crawl, one "type name file line" line per smell, sorted.
+	 */
+	private String report() {
+		SmellDetector.analyseObjecsList();
+		SmellResult result = SmellDetector.getCrawlResult();
+		List<String> lines = new ArrayList<String>();
+		for (SmellType type : SmellType.values()) {
+			for (SmellLocation location : result.getSmells(type)) {
+				lines.add(type.name() + "\t" + location.getSmellyItemName() + "\t"
+				        + location.getJsFile() + "\t" + location.getLineNumber());
+			}
+		}
+		Collections.sort(lines);
+		StringBuilder report = new StringBuilder();
+		for (String line : lines) {
+			report.append(line).append('\n');
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,73 @@
+package codesmells;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the smell analysis scales linearly with the number of objects by counting the
+ * lookups of objects and functions by name, instead of measuring time. An analysis that searches
+ * the objects found so far for every object it finds does a number of lookups that grows with the
+ * square of the number of objects.
+ */
+public class SmellAnalysisScalingTest {
+
+	private static final int OBJECTS = 100;
+
+	// lookups per object, the generated objects need 13
+	private static final int MAX_LOOKUPS_PER_OBJECT = 20;
+
+	@Before
+	public void reset() {
+		SmellDetector.reset();
+	}
+
+	@Test
+	public void lookupsGrowLinearlyWithTheNumberOfObjects() {
+		long lookups = analyse(OBJECTS);
+		long doubleLookups = analyse(2 * OBJECTS);
+		long quadrupleLookups = analyse(4 * OBJECTS);
+
+		assertTrue(lookups + " lookups for " + OBJECTS + " objects",
+		        lookups <= MAX_LOOKUPS_PER_OBJECT * OBJECTS);
+		/* every object adds the same number of lookups */
+		assertEquals(2 * (doubleLookups - lookups), quadrupleLookups - doubleLookups);
+	}
+
+	/**
+	 * @return the lookups of the analysis of a script with the given number of objects, including
+	 *         the smells found on the objects of the whole crawl
+	 */
+	private long analyse(int objects) {
+		SmellDetector.reset();
+		SmellDetector.merge(SmellDetector.analyseScript("app_js", generateObjects(objects), "app.js"));
+		SmellDetector.analyseObjecsList();
+		return SmellDetector.getCrawlLookups();
+	}
+
+	/**
+	 * @return JavaScript code with the given number of objects, each with its own properties and
+	 *         the previous object as prototype, as generated by JSNoseBenchmark.
+	 */
+	private static String generateObjects(int objects) {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < objects; i++) {
+			script.append("var o").append(i).append(" = {\n");
+			script.append("  a").append(i).append(": 1,\n");
+			script.append("  b").append(i).append(": \"b\",\n");
+			script.append("  c").append(i).append(": true\n");
+			script.append("};\n");
+			script.append("function C").append(i).append("(x, y) {\n");
+			script.append("  this.x = x;\n");
+			script.append("  this.y = y + o").append(i).append(".a").append(i).append(";\n");
+			script.append("}\n");
+			if (i > 0) {
+				script.append("C").append(i).append(".prototype = new C").append(i - 1)
+				        .append("();\n");
+			}
+		}
+		return script.toString();
+	}
+}
@@ -0,0 +1,16 @@
+// uses the objects of shapes.js and circle.js
+var app = {
+	start: function () {
+		var self = this;
+		setTimeout(function () {
+			self.draw(function () {
+				this.done = true;
+				registry.count++;
+			});
+		}, 10);
+	}
+};
+
+settings.precision = 3;
+unit.move(1, 1);
+base.area = 0;
@@ -0,0 +1,20 @@
+// extends the objects of shapes.js
+function Circle(name, radius) {
+	this.name = name;
+	this.radius = radius;
+}
+
+Circle.prototype = new Shape();
+
+var unit = new Circle("unit", 1);
+
+registry.shapes.push(unit);
+registry.count = registry.shapes.length;
+
+settings = {
+	precision: 2,
+	units: "px",
+	rounding: "half-up"
+};
+
+var base = Object.create(Shape.prototype);
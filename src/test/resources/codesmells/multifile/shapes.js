@@ -0,0 +1,18 @@
+// objects and constructors that are used by the other files of the fixture
+var registry = {
+	shapes: [],
+	count: 0
+};
+
+function Shape(name, x, y) {
+	this.name = name;
+	this.x = x;
+	this.y = y;
+}
+
+Shape.prototype.move = function (dx, dy) {
+	this.x += dx;
+	this.y += dy;
+};
+
+var settings = {};